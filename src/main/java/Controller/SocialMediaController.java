@@ -1,17 +1,59 @@
 package Controller;
 
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+import DAO.AccountIdIndex;
+import DAO.GroupCommitMessageWriter;
 import DAO.MessageDAO;
+import DAO.MessageRowHandler;
 import DAO.UserDAO;
 import Exceptions.UnauthorizedException;
 import Model.Account;
 import Model.Message;
+import Service.AsyncMessageService;
+import Service.AsyncUserService;
 import Service.MessageService;
+import Service.MessageVersions;
 import Service.UserService;
+import Util.JdbcExecutor;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.FrequencyCache;
+import Util.PageCursor;
+import Util.PrometheusText;
+import Util.RequestMetrics;
+import Util.ServerTiming;
+import Util.ServerTimingSampler;
+import Util.SessionTokenSigner;
 import io.javalin.Javalin;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
 import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -20,13 +62,80 @@ import io.javalin.http.Context;
  */
 public class SocialMediaController {
 
+    private static final Logger logger = LoggerFactory.getLogger(SocialMediaController.class);
+
+    /** The page size used by GET /messages when a cursor is given without a limit. */
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
+    /** How many rows a streamed response writes between flushes. */
+    private static final int STREAM_FLUSH_ROWS = 500;
+
+    /**
+     * Shared, thread-safe factory for the generators used by streamed responses. Closing a generator
+     * must not write the brackets a failed stream is missing, see streamMessages().
+     */
+    private static final JsonFactory jsonFactory = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+
+    /** The response header POST /login returns the session token in. */
+    public static final String SESSION_TOKEN_HEADER = "X-Session-Token";
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    /** The request attribute holding System.nanoTime() from when the request arrived. */
+    private static final String REQUEST_START_ATTRIBUTE = "requestStartNanos";
+
+    /** The request attribute holding the route pattern the request matched, set once its handler has run. */
+    private static final String ROUTE_ATTRIBUTE = "route";
+
+    /** The request attribute holding the ServerTiming of a sampled request. */
+    private static final String SERVER_TIMING_ATTRIBUTE = "serverTiming";
+
     UserService userService;
     MessageService messageService;
+    AsyncUserService asyncUserService;
+    AsyncMessageService asyncMessageService;
+    JdbcExecutor jdbcExecutor;
+    GroupCommitMessageWriter groupCommitWriter;
+    SessionTokenSigner sessionTokens;
+    RequestMetrics requestMetrics = new RequestMetrics();
+    /** Behind ctx.json() and the message JSON cache alike, so cached and uncached responses match. */
+    ObjectMapper objectMapper = JavalinJackson.Companion.defaultMapper();
+    ServerTimingSampler serverTimings;
+    String serverTimingRequestHeader;
+    boolean virtualThreads;
 
     // Constructor for dependency
     public SocialMediaController(){
-        this.userService = new UserService(new UserDAO()); 
-        this.messageService = new MessageService(new MessageDAO());
+        // Every account_id in memory, so posted_by checks don't query the account table
+        AccountIdIndex accountIndex = new AccountIdIndex(Long.getLong("accounts.index.reconcileIntervalMillis", 1000));
+        accountIndex.load();
+
+        MessageDAO messageDAO = new MessageDAO(accountIndex);
+
+        // Opt-in group commit for POST /messages, see GroupCommitMessageWriter
+        if(Boolean.getBoolean("messages.groupCommit")){
+            this.groupCommitWriter = new GroupCommitMessageWriter(messageDAO,
+                    Integer.getInteger("messages.groupCommit.queueCapacity", 4096),
+                    Integer.getInteger("messages.groupCommit.batchSize", 256),
+                    Long.getLong("messages.groupCommit.delayMicros", 2000),
+                    Long.getLong("messages.groupCommit.writeTimeoutMillis", GroupCommitMessageWriter.DEFAULT_WRITE_TIMEOUT_MILLIS));
+        }
+
+        this.userService = new UserService(new UserDAO(accountIndex)); 
+        this.sessionTokens = SessionTokenSigner.fromSystemProperties(Long.getLong("session.ttlSeconds", 3600));
+        this.messageService = new MessageService(messageDAO, groupCommitWriter, objectMapper);
+        this.messageService.buildSearchIndex();
+
+        // Handlers hand database work to this executor and complete the response through ctx.future()
+        this.jdbcExecutor = JdbcExecutor.fromSystemProperties();
+        this.asyncUserService = new AsyncUserService(userService, jdbcExecutor);
+        this.asyncMessageService = new AsyncMessageService(messageService, jdbcExecutor);
+
+        // Server-Timing for one in server.timing.sampleEvery requests, and for any that send the request header
+        this.serverTimings = new ServerTimingSampler(Integer.getInteger("server.timing.sampleEvery", 0),
+                Integer.getInteger("server.timing.capacity", 256));
+        this.serverTimingRequestHeader = System.getProperty("server.timing.requestHeader", "X-Server-Timing");
     }
 
 
@@ -37,20 +146,233 @@ public class SocialMediaController {
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> {
+            config.jetty.server(this::createServer);
+            config.compression.custom(createCompression());
+            config.jsonMapper(new JavalinJackson(objectMapper));
+            // Runs once the response is complete, after any ctx.future() has finished
+            config.requestLogger.http((ctx, executionTimeMs) -> recordRequest(ctx));
+        });
+        app.before(ctx -> {
+            ctx.attribute(REQUEST_START_ATTRIBUTE, System.nanoTime());
+            requestMetrics.requestStarted();
+            startServerTiming(ctx);
+        });
+        // After handlers run once any ctx.future() has finished, before the response is written
+        app.after(ctx -> {
+            ctx.attribute(ROUTE_ATTRIBUTE, routeOf(ctx));
+            writeServerTiming(ctx);
+        });
         app.post("/register", this::handleReigister);
         app.post("/login", this::handleLogin);
         app.post("/messages", this::handleCreateMessage);
+        app.post("/messages/batch", this::handleCreateMessageBatch);
         app.get("/messages", this::handleGetAllMessages);
-        app.get("messages/{message_id}", this::handleGetMessageById);
+        // Before /messages/{message_id}, which would otherwise take "search" as an id
+        app.get("/messages/search", this::handleSearchMessages);
+        app.get("/messages/{message_id}", this::handleGetMessageById);
         app.delete("/messages/{message_id}", this::handleDeleteMessageById);
         app.patch("/messages/{message_id}", this::handleUpdateMessageText);
         app.get("/accounts/{account_id}/messages", this::hadleGetMessagesByUserId);
+        app.get("/metrics", this::handleGetMetrics);
+
+        app.events(event -> event.serverStopped(jdbcExecutor::close));
+        if(groupCommitWriter != null){
+            app.events(event -> event.serverStopped(groupCommitWriter::close));
+        }
 
         return app;
     }
 
 
+    /**
+     * Builds the Jetty server with an explicit request thread pool.
+     *
+     * By default handlers run on up to server.maxThreads (250) platform threads, so a slow query holds
+     * a thread for as long as it runs. With -Dserver.virtualThreads=true on Java 21 or later, the pool
+     * hands every request to a new virtual thread instead. Handlers are then only limited by the JDBC
+     * pool, whose acquire timeout decides when waiting requests give up. On older runtimes the flag logs
+     * a warning and the platform pool is used.
+     */
+    private Server createServer(){
+        QueuedThreadPool threadPool = new QueuedThreadPool(Integer.getInteger("server.maxThreads", 250),
+                Integer.getInteger("server.minThreads", 8), 60_000);
+        threadPool.setName("JettyServerThreadPool");
+
+        if(Boolean.getBoolean("server.virtualThreads")){
+            if(VirtualThreads.areSupported()){
+                threadPool.setUseVirtualThreads(true);
+                virtualThreads = true;
+                logger.info("Handling requests on virtual threads");
+            } else {
+                logger.warn("server.virtualThreads is set but this Java {} runtime has no virtual threads, using platform threads",
+                        System.getProperty("java.version"));
+            }
+        }
+        return new Server(threadPool);
+    }
+
+
+    /**
+     * Gzips responses of at least server.compression.minBytes (1024) for clients that accept it, at
+     * server.compression.gzipLevel (6). Smaller bodies are sent as they are: below about a packet
+     * the CPU spent compressing buys nothing on the wire.
+     */
+    private CompressionStrategy createCompression(){
+        CompressionStrategy compression = new CompressionStrategy(null,
+                new Gzip(Integer.getInteger("server.compression.gzipLevel", 6)));
+        compression.setMinSizeForCompression(Integer.getInteger("server.compression.minBytes", 1024));
+        return compression;
+    }
+
+
+    /**
+     * @return True if the server built by startAPI handles requests on virtual threads.
+     */
+    public boolean isUsingVirtualThreads(){
+        return virtualThreads;
+    }
+
+
+
+
+    /**
+     * Records a finished request's latency under the route it matched, or "unmatched" for a 404, and
+     * hands back its ServerTiming.
+     */
+    private void recordRequest(Context ctx){
+        ServerTiming timing = ctx.attribute(SERVER_TIMING_ATTRIBUTE);
+        if(timing != null){
+            serverTimings.finish(timing);
+        }
+
+        Long start = ctx.attribute(REQUEST_START_ATTRIBUTE);
+        if(start == null){
+            return;
+        }
+        String route = ctx.attribute(ROUTE_ATTRIBUTE);
+        requestMetrics.requestFinished(ctx.method().name(), route == null ? "unmatched" : route,
+                ctx.statusCode(), System.nanoTime() - start);
+    }
+
+    /**
+     * @return The endpoint's route pattern, or "unmatched" if no endpoint matched. Only valid in an after handler.
+     */
+    private static String routeOf(Context ctx){
+        // For a 404 Javalin leaves a description here instead of a path
+        String route = ctx.endpointHandlerPath();
+        return route != null && route.startsWith("/") ? route : "unmatched";
+    }
+
+
+    /**
+     * Lends the request a ServerTiming if it is sampled, either because it sent the
+     * server.timing.requestHeader (X-Server-Timing) header or by the server.timing.sampleEvery rate.
+     * Setting server.timing.requestHeader to an empty value stops clients from asking.
+     */
+    private void startServerTiming(Context ctx){
+        boolean requested = !serverTimingRequestHeader.isEmpty() && ctx.header(serverTimingRequestHeader) != null;
+        ServerTiming timing = serverTimings.start(requested);
+        if(timing != null){
+            ctx.attribute(SERVER_TIMING_ATTRIBUTE, timing);
+        }
+    }
+
+    private void writeServerTiming(Context ctx){
+        ServerTiming timing = ctx.attribute(SERVER_TIMING_ATTRIBUTE);
+        Long start = ctx.attribute(REQUEST_START_ATTRIBUTE);
+        // A streamed body is already out, streamMessages sends its timing as a trailer instead
+        if(timing != null && start != null && !ctx.res().isCommitted()){
+            ctx.header("Server-Timing", timing.toHeader(System.nanoTime() - start));
+        }
+    }
+
+
+    /**
+     * Handles GET /metrics in the Prometheus text format: request latencies per route and status, the
+     * requests in flight, JVM memory and GC, and the connection pool, JDBC executor, group commit writer
+     * and caches.
+     */
+    private void handleGetMetrics(Context ctx){
+        PrometheusText prometheus = new PrometheusText();
+        requestMetrics.writeTo(prometheus);
+        writeJvmMetrics(prometheus);
+        writeDatabaseMetrics(prometheus);
+        writeCacheMetrics(prometheus);
+        ctx.status(200).contentType(PrometheusText.CONTENT_TYPE).result(prometheus.toString());
+    }
+
+    private void writeJvmMetrics(PrometheusText prometheus){
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        prometheus.single("jvm_memory_heap_used_bytes", "gauge", "Heap in use.", heap.getUsed());
+        prometheus.single("jvm_memory_heap_committed_bytes", "gauge", "Heap reserved from the OS.", heap.getCommitted());
+        prometheus.single("jvm_memory_heap_max_bytes", "gauge", "The most heap the JVM may use.", heap.getMax());
+
+        prometheus.declare("jvm_gc_collections_total", "counter", "Collections run, by collector.");
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+            prometheus.sample("jvm_gc_collections_total", gc.getCollectionCount(), "gc", gc.getName());
+        }
+        prometheus.declare("jvm_gc_collection_seconds_total", "counter", "Time spent collecting, by collector.");
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+            prometheus.sample("jvm_gc_collection_seconds_total", gc.getCollectionTime() / 1000.0, "gc", gc.getName());
+        }
+
+        prometheus.single("jvm_threads_live", "gauge", "Live platform threads.",
+                ManagementFactory.getThreadMXBean().getThreadCount());
+        prometheus.single("process_uptime_seconds", "gauge", "Time since the JVM started.",
+                ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+    }
+
+    private void writeDatabaseMetrics(PrometheusText prometheus){
+        ConnectionPool pool = ConnectionUtil.getPool();
+        prometheus.single("db_pool_connections_active", "gauge", "Connections lent out.", pool.getActiveCount());
+        prometheus.single("db_pool_connections_idle", "gauge", "Connections waiting in the pool.", pool.getIdleCount());
+        prometheus.single("db_pool_connections_max", "gauge", "The pool's size limit.", pool.getMaxSize());
+        prometheus.single("db_pool_waiting_threads", "gauge", "Threads waiting for a connection.", pool.getWaitingCount());
+        prometheus.single("db_statement_cache_hits_total", "counter", "Prepared statements reused.", pool.getStatementCacheHits());
+        prometheus.single("db_statement_cache_misses_total", "counter", "Prepared statements created.", pool.getStatementCacheMisses());
+        if(pool.getQueryMetrics() != null){
+            pool.getQueryMetrics().writeTo(prometheus);
+        }
+
+        prometheus.single("db_async_queue_depth", "gauge", "Calls waiting for a JDBC thread.", jdbcExecutor.getQueueDepth());
+        prometheus.single("db_async_active", "gauge", "Calls running on JDBC threads.", jdbcExecutor.getActiveCount());
+        prometheus.single("db_async_rejected_total", "counter", "Calls refused because the queue was full.", jdbcExecutor.getRejectedCount());
+        prometheus.single("db_async_timed_out_total", "counter", "Calls whose caller stopped waiting.", jdbcExecutor.getTimedOutCount());
+
+        if(groupCommitWriter != null){
+            groupCommitWriter.writeTo(prometheus);
+        }
+    }
+
+    private void writeCacheMetrics(PrometheusText prometheus){
+        prometheus.declare("cache_hits_total", "counter", "Lookups answered from the cache.");
+        forEachCache((name, cache) -> prometheus.sample("cache_hits_total", cache.getHitCount(), "cache", name));
+        prometheus.sample("cache_hits_total", messageService.getTimelineCache().getHitCount(), "cache", "timelines");
+
+        prometheus.declare("cache_misses_total", "counter", "Lookups that had to load.");
+        forEachCache((name, cache) -> prometheus.sample("cache_misses_total", cache.getMissCount(), "cache", name));
+        prometheus.sample("cache_misses_total", messageService.getTimelineCache().getMissCount(), "cache", "timelines");
+
+        prometheus.declare("cache_evictions_total", "counter", "Entries dropped to stay within the size limit.");
+        forEachCache((name, cache) -> prometheus.sample("cache_evictions_total", cache.getEvictionCount(), "cache", name));
+        prometheus.sample("cache_evictions_total", messageService.getTimelineCache().getEvictionCount(), "cache", "timelines");
+
+        prometheus.declare("cache_entries", "gauge", "Entries held.");
+        forEachCache((name, cache) -> prometheus.sample("cache_entries", cache.size(), "cache", name));
+        prometheus.sample("cache_entries", messageService.getTimelineCache().getAccountCount(), "cache", "timelines");
+
+        prometheus.single("messages_search_terms", "gauge", "Distinct words in the search index.",
+                messageService.getSearchIndex().getTermCount());
+        prometheus.single("messages_search_postings", "gauge", "Word and message pairs in the search index.",
+                messageService.getSearchIndex().getPostingCount());
+    }
+
+    private void forEachCache(BiConsumer<String, FrequencyCache<?, ?>> action){
+        action.accept("messages", messageService.getMessageCache());
+        action.accept("message_json", messageService.getJsonCache().getEntries());
+        action.accept("usernames", userService.getAccountDirectory());
+    }
 
 
     /**
@@ -60,12 +382,11 @@ public class SocialMediaController {
     private void handleReigister(Context ctx) {
         try {
             // Parse JSON body into account
-            Account requestAccount = ctx.bodyAsClass(Account.class);
+            Account requestAccount = parseBody(ctx, Account.class);
 
             // Register the user with service layer
-            Account createdAccount = userService.registerUser(requestAccount.getUsername(), requestAccount.getPassword());
-
-            ctx.status(200).json(createdAccount);
+            respondAsync(ctx, () -> asyncUserService.registerUser(requestAccount.getUsername(), requestAccount.getPassword()),
+                    createdAccount -> ctx.status(200).json(createdAccount));
         } catch (IllegalArgumentException e) {
             ctx.status(400).result("");
         } catch(Exception e){
@@ -82,12 +403,25 @@ public class SocialMediaController {
 
         try {
             // Pase JSON body into account
-            Account requestAccount = ctx.bodyAsClass(Account.class);
+            Account requestAccount = parseBody(ctx, Account.class);
             
             // Validate the login using the service layer
-            Account loggedIAccount = userService.login(requestAccount.getUsername(), requestAccount.getPassword());
-
-            ctx.status(200).json(loggedIAccount);
+            ctx.future(() -> startWork(ctx, () -> asyncUserService.login(requestAccount.getUsername(), requestAccount.getPassword()))
+                    .thenAccept(serializing(ctx, loggedIAccount -> {
+                        // Later requests can send this back as "Authorization: Bearer <token>" instead of credentials
+                        ctx.header(SESSION_TOKEN_HEADER, sessionTokens.issue(loggedIAccount.getAccount_id()));
+                        ctx.status(200).json(loggedIAccount);
+                    }))
+                    .exceptionally(error -> {
+                        // Unlike the other endpoints, login explains its 400s
+                        Throwable cause = unwrap(error);
+                        if(cause instanceof IllegalArgumentException){
+                            ctx.status(400).result(cause.getMessage());
+                        } else {
+                            respondWithError(ctx, cause);
+                        }
+                        return null;
+                    }));
         } catch (UnauthorizedException e){
             ctx.status(401).result("");
         } catch(IllegalArgumentException e){
@@ -106,12 +440,43 @@ public class SocialMediaController {
      */
     private void handleCreateMessage(Context ctx){
         try {
-            Message requestMessage = ctx.bodyAsClass(Message.class);
+            Message requestMessage = parseBody(ctx, Message.class);
+            requireSessionFor(ctx, requestMessage.getPosted_by());
 
             // Validate and Create
-            Message createdMessage = messageService.createMessage(requestMessage);
+            respondAsync(ctx, () -> asyncMessageService.createMessage(requestMessage),
+                    createdMessage -> ctx.status(200).json(createdMessage));
+        } catch (UnauthorizedException e){
+            ctx.status(401).result("");
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result("");
+        } catch (Exception e){
+            ctx.status(500).result("Internal server error: " + e.getMessage());
+        }
+    }
+
 
-            ctx.status(200).json(createdMessage);
+    /**
+     * Handles the POST /messages/batch endpoint
+     *
+     * The body is a JSON array of messages. The response lists the result of every item in request
+     * order, with the message_id of each created message or the reason it was rejected.
+     * @param ctx The Javalin Context object that manages the HTTP request and response
+     */
+    private void handleCreateMessageBatch(Context ctx){
+        try {
+            Message[] requestMessages = parseBody(ctx, Message[].class);
+            for(Message requestMessage : requestMessages){
+                if(requestMessage != null){
+                    requireSessionFor(ctx, requestMessage.getPosted_by());
+                }
+            }
+
+            List<Message> messages = Arrays.asList(requestMessages);
+            respondAsync(ctx, () -> asyncMessageService.createMessages(messages),
+                    results -> ctx.status(200).json(results));
+        } catch (UnauthorizedException e){
+            ctx.status(401).result("");
         } catch (IllegalArgumentException e) {
             ctx.status(400).result("");
         } catch (Exception e){
@@ -122,13 +487,41 @@ public class SocialMediaController {
 
     /**
      * Handles GET /messages endpoint
+     *
+     * Without query parameters every message is returned as a JSON array. With limit, after_id,
+     * before_id or cursor the response is a single page of messages plus a next_cursor. With
+     * stream=true the array is written row by row as it is read from the database.
+     *
+     * Every response carries an ETag of the message table's version, and a request whose If-None-Match
+     * still matches it gets 304 without the database being read.
      * @param ctx The Javalin Contect object that manages the HTTP request and response. 
      */
     private void handleGetAllMessages(Context ctx){
         try {
-            List<Message> allMessages = messageService.getAllMessages();
+            boolean pageRequest = isPageRequest(ctx);
+            int limit = pageRequest ? parseLimit(ctx) : 0;
+            PageCursor cursor = pageRequest ? parseCursor(ctx) : null;
 
-            ctx.status(200).json(allMessages);
+            MessageVersions versions = messageService.getVersions();
+            if(notModified(ctx, versions.getEpoch() + "-" + versions.getGlobalVersion())){
+                return;
+            }
+
+            if(isStreamRequest(ctx)){
+                streamMessages(ctx, messageService::streamAllMessages);
+                return;
+            }
+
+            if(pageRequest){
+                respondAsync(ctx, () -> asyncMessageService.getMessagesPage(limit, cursor),
+                        page -> respondJson(ctx, messageService.getJsonCache().toJson(page)));
+                return;
+            }
+
+            respondAsync(ctx, asyncMessageService::getAllMessages,
+                    allMessages -> respondJson(ctx, messageService.getJsonCache().toJsonArray(allMessages)));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result("");
         } catch (Exception e) {
             ctx.status(500).result("Internal server error: " + e.getMessage());
         }
@@ -136,17 +529,89 @@ public class SocialMediaController {
     }
 
 
+    private boolean isStreamRequest(Context ctx){
+        return "true".equalsIgnoreCase(ctx.queryParam("stream"));
+    }
+
+    private boolean isPageRequest(Context ctx){
+        return ctx.queryParam("limit") != null || ctx.queryParam("after_id") != null
+                || ctx.queryParam("before_id") != null || ctx.queryParam("cursor") != null;
+    }
+
+    private int parseLimit(Context ctx){
+        String limit = ctx.queryParam("limit");
+        return limit == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+    }
+
+    /**
+     * Reads where the page starts from the cursor, after_id or before_id query parameter.
+     * @throws IllegalArgumentException If more than one is given or a value is malformed.
+     */
+    private PageCursor parseCursor(Context ctx){
+        String cursor = ctx.queryParam("cursor");
+        String afterId = ctx.queryParam("after_id");
+        String beforeId = ctx.queryParam("before_id");
+
+        int given = (cursor != null ? 1 : 0) + (afterId != null ? 1 : 0) + (beforeId != null ? 1 : 0);
+        if(given > 1){
+            throw new IllegalArgumentException("Only one of cursor, after_id and before_id may be given");
+        }
+
+        if(cursor != null){
+            return PageCursor.decode(cursor);
+        }
+        if(afterId != null){
+            return PageCursor.after(Integer.parseInt(afterId));
+        }
+        if(beforeId != null){
+            return PageCursor.before(Integer.parseInt(beforeId));
+        }
+        return null;
+    }
+
+
+    /**
+     * Handles GET /messages/search?q=...
+     *
+     * Returns a page of the messages containing every word of q, like the paginated GET /messages:
+     * limit, cursor, after_id and before_id work the same way and the response has a next_cursor.
+     * @param ctx The Javalin Context object that manages the HTTP request and response.
+     */
+    private void handleSearchMessages(Context ctx){
+        try {
+            String query = ctx.queryParam("q");
+            if(query == null){
+                throw new IllegalArgumentException("Missing q");
+            }
+            int limit = parseLimit(ctx);
+            PageCursor cursor = parseCursor(ctx);
+
+            MessageVersions versions = messageService.getVersions();
+            if(notModified(ctx, versions.getEpoch() + "-" + versions.getGlobalVersion())){
+                return;
+            }
+
+            respondAsync(ctx, () -> asyncMessageService.searchMessages(query, limit, cursor),
+                    page -> respondJson(ctx, messageService.getJsonCache().toJson(page)));
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result("");
+        } catch (Exception e) {
+            ctx.status(500).result("Internal server error: " + e.getMessage());
+        }
+    }
+
+
     private void handleGetMessageById(Context ctx){
         try {
             int messageId = Integer.parseInt(ctx.pathParam("message_id"));
 
-            Message message = messageService.getMessageById(messageId);
-
-            if(message == null){
-                ctx.status(200).json("");
-            } else{
-                ctx.status(200).json(message);
-            }
+            respondAsync(ctx, () -> asyncMessageService.getMessageById(messageId), message -> {
+                if(message == null){
+                    ctx.status(200).json("");
+                } else{
+                    ctx.status(200).json(message);
+                }
+            });
 
         } catch (Exception e) {
             ctx.status(500).result("Internal server error: " + e.getLocalizedMessage());
@@ -163,14 +628,18 @@ public class SocialMediaController {
         try {
             
             int messageId = Integer.parseInt(ctx.pathParam("message_id"));
-
-            Message deletedMessage = messageService.deleteMessageByID(messageId);
-
-            if(deletedMessage != null){
-                ctx.status(200).json(deletedMessage);
-            } else{
-                ctx.status(200).result("");
-            }
+            Integer sessionAccountId = sessionAccountId(ctx);
+
+            respondAsync(ctx, () -> requireMessageOwner(sessionAccountId, messageId)
+                    .thenCompose(owned -> asyncMessageService.deleteMessageByID(messageId)), deletedMessage -> {
+                if(deletedMessage != null){
+                    ctx.status(200).json(deletedMessage);
+                } else{
+                    ctx.status(200).result("");
+                }
+            });
+        } catch (UnauthorizedException e){
+            ctx.status(401).result("");
         } catch (Exception e) {
             ctx.status(500).result("Internal server error: " + e.getMessage());
         }
@@ -185,13 +654,16 @@ public class SocialMediaController {
         try {
             
             int messageId = Integer.parseInt(ctx.pathParam("message_id"));
+            Integer sessionAccountId = sessionAccountId(ctx);
 
-            Message requestBody = ctx.bodyAsClass(Message.class);
+            Message requestBody = parseBody(ctx, Message.class);
             String newMessageText = requestBody.getMessage_text();
 
-            Message updatedMessage = messageService.updateMessageTextById(messageId, newMessageText);
-
-            ctx.status(200).json(updatedMessage);
+            respondAsync(ctx, () -> requireMessageOwner(sessionAccountId, messageId)
+                    .thenCompose(owned -> asyncMessageService.updateMessageTextById(messageId, newMessageText)),
+                    updatedMessage -> ctx.status(200).json(updatedMessage));
+        } catch (UnauthorizedException e){
+            ctx.status(401).result("");
         } catch (IllegalArgumentException e) {
             ctx.status(400).result("");
         } catch (Exception e) {
@@ -202,9 +674,198 @@ public class SocialMediaController {
 
 
 
+    /**
+     * Checks the session token of a request, if it has one.
+     *
+     * Requests without an Authorization header are let through as before. A request that sends
+     * "Bearer <token>" must send a valid token, and may then only act as the account it was issued for.
+     * Verifying the token is CPU only, no database or cache is consulted.
+     *
+     * @param ctx The request.
+     * @param accountId The account the request acts as.
+     * @throws UnauthorizedException If the token is invalid, expired or for another account.
+     */
+    private void requireSessionFor(Context ctx, int accountId){
+        Integer sessionAccountId = sessionAccountId(ctx);
+        if(sessionAccountId != null && sessionAccountId != accountId){
+            throw new UnauthorizedException("Session token is for another account");
+        }
+    }
+
+
+    /**
+     * Like requireSessionFor, for a request that changes an existing message: the token must belong to
+     * the message's author. Messages that don't exist are left to the handler.
+     *
+     * @param sessionAccountId The account from sessionAccountId(), or null if the request sent no token.
+     * @return A future that fails with UnauthorizedException if the message belongs to someone else.
+     */
+    private CompletableFuture<Void> requireMessageOwner(Integer sessionAccountId, int messageId){
+        if(sessionAccountId == null){
+            return CompletableFuture.completedFuture(null);
+        }
+        return asyncMessageService.getMessageById(messageId).thenAccept(message -> {
+            if(message != null && message.getPosted_by() != sessionAccountId){
+                throw new UnauthorizedException("Session token is for another account");
+            }
+        });
+    }
+
+
+    /**
+     * Sets the response's ETag and, if the request's If-None-Match already names it, answers 304.
+     *
+     * The tag is weak (W/) because the body may be sent gzipped or not: the representations are
+     * equivalent but not byte for byte the same. The version must be read before the data it labels.
+     *
+     * @param ctx The request.
+     * @param version Identifies the data the response is about to be built from.
+     * @return True if the 304 has been sent and the handler should stop.
+     */
+    private boolean notModified(Context ctx, String version){
+        String etag = "W/\"" + version + "\"";
+        ctx.header("ETag", etag);
+
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if(ifNoneMatch == null){
+            return false;
+        }
+        for(String candidate : ifNoneMatch.split(",")){
+            candidate = candidate.trim();
+            if(candidate.equals("*") || candidate.equals(etag) || ("W/" + candidate).equals(etag)){
+                ctx.status(304);
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Sends JSON that is already serialized, as a 200.
+     *
+     * List endpoints build their body from MessageJsonCache, which reuses each message's bytes
+     * instead of running the whole list through Jackson as ctx.json() would.
+     */
+    private void respondJson(Context ctx, byte[] json){
+        ctx.status(200).contentType("application/json").result(json);
+    }
+
+
+    /**
+     * Completes the response when work does, without holding the request thread while it runs.
+     *
+     * @param ctx The request.
+     * @param work Starts the async service call.
+     * @param respond Writes the successful result to ctx.
+     * @param <T> The result type.
+     */
+    private <T> void respondAsync(Context ctx, Supplier<CompletableFuture<T>> work, Consumer<T> respond){
+        ctx.future(() -> startWork(ctx, work)
+                .thenAccept(serializing(ctx, respond))
+                .exceptionally(error -> {
+                    respondWithError(ctx, error);
+                    return null;
+                }));
+    }
+
+
+    /**
+     * Reads the request body, adding the time taken to the parse phase of a sampled request.
+     */
+    private <T> T parseBody(Context ctx, Class<T> type){
+        ServerTiming timing = ctx.attribute(SERVER_TIMING_ATTRIBUTE);
+        if(timing == null){
+            return ctx.bodyAsClass(type);
+        }
+        long start = System.nanoTime();
+        try {
+            return ctx.bodyAsClass(type);
+        } finally {
+            timing.add(ServerTiming.PARSE, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starts an async service call with the request's ServerTiming bound, so the JdbcExecutor work
+     * it submits is timed for this request.
+     */
+    private <T> CompletableFuture<T> startWork(Context ctx, Supplier<CompletableFuture<T>> work){
+        ServerTiming timing = ctx.attribute(SERVER_TIMING_ATTRIBUTE);
+        if(timing == null){
+            return work.get();
+        }
+        ServerTiming.bind(timing, timing.getGeneration());
+        try {
+            return work.get();
+        } finally {
+            ServerTiming.unbind();
+        }
+    }
+
+    /**
+     * @return respond, adding the time it takes to the serialize phase of a sampled request.
+     */
+    private <T> Consumer<T> serializing(Context ctx, Consumer<T> respond){
+        ServerTiming timing = ctx.attribute(SERVER_TIMING_ATTRIBUTE);
+        if(timing == null){
+            return respond;
+        }
+        return result -> {
+            long start = System.nanoTime();
+            try {
+                respond.accept(result);
+            } finally {
+                timing.add(ServerTiming.SERIALIZE, System.nanoTime() - start);
+            }
+        };
+    }
+
+
+    /**
+     * Maps a failed async call to a response the same way the synchronous handlers map exceptions.
+     * Timeouts and a full JDBC queue are reported as 503. Writes only time out before they start, so
+     * a 503 for a create, update or delete means it was not applied.
+     */
+    private void respondWithError(Context ctx, Throwable error){
+        Throwable cause = unwrap(error);
+        if(cause instanceof UnauthorizedException){
+            ctx.status(401).result("");
+        } else if(cause instanceof IllegalArgumentException){
+            ctx.status(400).result("");
+        } else if(cause instanceof TimeoutException || cause instanceof RejectedExecutionException){
+            ctx.status(503).result("Service unavailable: " + cause.getMessage());
+        } else {
+            ctx.status(500).result("Internal server error: " + cause.getMessage());
+        }
+    }
+
+    private static Throwable unwrap(Throwable error){
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+
+    /**
+     * @return The account_id of the request's session token, or null if it didn't send one.
+     * @throws UnauthorizedException If the token is invalid or expired.
+     */
+    private Integer sessionAccountId(Context ctx){
+        String authorization = ctx.header("Authorization");
+        if(authorization == null){
+            return null;
+        }
+        if(!authorization.startsWith(BEARER_PREFIX)){
+            throw new UnauthorizedException("Unsupported authorization scheme");
+        }
+        return sessionTokens.verify(authorization.substring(BEARER_PREFIX.length()));
+    }
+
+
     /**
      * Handles the GET /accounts/{account_id}/messages endpoint
-     * 
+     *
+     * With stream=true the array is written row by row as it is read from the database. Like
+     * GET /messages it answers If-None-Match, using the version of the account's messages.
      * @param ctx The Javalin Context object that manages the HTTP request and response
      */
     private void hadleGetMessagesByUserId(Context ctx){
@@ -212,9 +873,18 @@ public class SocialMediaController {
         try {
             int accountId = Integer.parseInt(ctx.pathParam("account_id"));
 
-            List<Message> userMessages = messageService.getMessagesByUserId(accountId);
+            MessageVersions versions = messageService.getVersions();
+            if(notModified(ctx, versions.getEpoch() + "-a" + versions.getAccountVersion(accountId))){
+                return;
+            }
+
+            if(isStreamRequest(ctx)){
+                streamMessages(ctx, handler -> messageService.streamMessagesByUserId(accountId, handler));
+                return;
+            }
 
-            ctx.status(200).json(userMessages);
+            respondAsync(ctx, () -> asyncMessageService.getMessagesByUserId(accountId),
+                    userMessages -> respondJson(ctx, messageService.getJsonCache().toJsonArray(userMessages)));
         } catch (NumberFormatException e) {
             ctx.status(400).result("");
         } catch (Exception e) {
@@ -224,4 +894,93 @@ public class SocialMediaController {
     }
 
 
-}
\ No newline at end of file
+
+    /**
+     * Writes a JSON array of messages straight to the response output stream as the rows are read.
+     *
+     * No Content-Length is set, so Jetty sends the body with chunked transfer encoding, and the
+     * generator is flushed every STREAM_FLUSH_ROWS rows so memory stays flat however many rows there are.
+     * Once the first chunk has gone out the status can no longer change, so a failure part way
+     * through aborts the connection without the terminating chunk. The client sees a broken transfer
+     * rather than a 200 with a well-formed but truncated array.
+     *
+     * For the same reason a sampled request's Server-Timing is sent as a trailer after the last chunk,
+     * unless the body was small enough to still be buffered when the after handler set the header.
+     * Reading the rows counts as dao time and writing them as serialize time.
+     * @param ctx The Javalin Context object that manages the HTTP request and response
+     * @param source Runs the query and feeds each row to the handler it is given
+     */
+    private void streamMessages(Context ctx, MessageStreamSource source) {
+        ctx.status(200).contentType("application/json");
+
+        ServerTiming timing = ctx.attribute(SERVER_TIMING_ATTRIBUTE);
+        String[] serverTiming = {null};
+        if(timing != null){
+            ctx.header("Trailer", "Server-Timing");
+            // A body small enough to stay buffered gets the header from the after handler instead
+            ctx.res().setTrailerFields(() -> serverTiming[0] == null || ctx.res().containsHeader("Server-Timing")
+                    ? Collections.emptyMap() : Collections.singletonMap("Server-Timing", serverTiming[0]));
+            ServerTiming.bind(timing, timing.getGeneration());
+        }
+        long start = System.nanoTime();
+
+        try {
+            JsonGenerator generator = jsonFactory.createGenerator(ctx.outputStream());
+            generator.writeStartArray();
+
+            int[] rows = {0};
+            source.stream((messageId, postedBy, messageText, timePostedEpoch) -> {
+                generator.writeStartObject();
+                generator.writeNumberField("message_id", messageId);
+                generator.writeNumberField("posted_by", postedBy);
+                generator.writeStringField("message_text", messageText);
+                generator.writeNumberField("time_posted_epoch", timePostedEpoch);
+                generator.writeEndObject();
+
+                if(++rows[0] % STREAM_FLUSH_ROWS == 0){
+                    flush(ctx, generator);
+                }
+            });
+
+            generator.writeEndArray();
+            if(timing != null){
+                // Everything but the statements, which InstrumentedStatement added as dao time
+                timing.add(ServerTiming.SERIALIZE, Math.max(0, System.nanoTime() - start - timing.getNanos(ServerTiming.DAO)));
+                Long requestStart = ctx.attribute(REQUEST_START_ATTRIBUTE);
+                serverTiming[0] = timing.toHeader(System.nanoTime() - requestStart);
+                // Jetty 11 overflows its chunk buffer writing trailers after a last chunk that has
+                // content, so send the content first and let completing the response write only the trailer
+                flush(ctx, generator);
+            }
+            generator.close();
+        } catch (IOException | RuntimeException e) {
+            // Not closed: closing would end the chunked body cleanly and make the array look complete
+            logger.warn("Aborting streamed response to {}: {}", ctx.path(), e.getMessage());
+            Request.getBaseRequest(ctx.req()).getHttpChannel().abort(e);
+        } finally {
+            if(timing != null){
+                ServerTiming.unbind();
+            }
+        }
+    }
+
+
+    /**
+     * Sends what the generator has written so far. Javalin's response stream doesn't pass flush() on
+     * to Jetty, so the servlet response is flushed as well.
+     */
+    private static void flush(Context ctx, JsonGenerator generator) throws IOException {
+        generator.flush();
+        ctx.res().flushBuffer();
+    }
+
+
+    /**
+     * A streaming read from the service layer that feeds each message row to a handler.
+     */
+    @FunctionalInterface
+    private interface MessageStreamSource {
+        void stream(MessageRowHandler handler) throws IOException;
+    }
+
+}
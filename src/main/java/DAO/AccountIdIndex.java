@@ -0,0 +1,153 @@
+package DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import Util.ConnectionUtil;
+
+/**
+ * An in-memory set of every account_id, kept as a bitmap with one bit per id.
+ *
+ * The bitmap is loaded from the account table once and then kept up to date by UserDAO.registerUser.
+ * contains() is a single array read, no JDBC and no allocation.
+ *
+ * Accounts can also be inserted without going through UserDAO, by a script or another process.
+ * Ids handed out that way are above the highest id the index knows about, so when contains() is asked
+ * for such an id it first reconciles: it reads the ids above its current maximum from the database.
+ * Reconciliation runs at most once per reconcileIntervalMillis, so a flood of lookups for ids that
+ * really don't exist can't turn into a flood of queries.
+ *
+ * Accounts are never deleted, so an id that is in the index always exists.
+ */
+public class AccountIdIndex {
+
+    private final long reconcileIntervalNanos;
+
+    /** Replaced, never resized in place, when an id past the end is added. Writers hold the index lock. */
+    private volatile AtomicLongArray words = new AtomicLongArray(64);
+    private volatile int maxId;
+    private volatile long lastReconcile;
+
+    private final LongAdder reconciliations = new LongAdder();
+
+    /**
+     * @param reconcileIntervalMillis The least time between two reconciliations triggered by contains().
+     */
+    public AccountIdIndex(long reconcileIntervalMillis){
+        this.reconcileIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reconcileIntervalMillis);
+        this.lastReconcile = System.nanoTime() - reconcileIntervalNanos;
+    }
+
+
+    /**
+     * Loads every account_id from the database into the index.
+     */
+    public void load(){
+        reconcile(true);
+    }
+
+
+    /**
+     * @param accountId The account_id to check.
+     * @return True if an account with this id exists.
+     */
+    public boolean contains(int accountId){
+        if(isSet(accountId)){
+            return true;
+        }
+        if(accountId > maxId && System.nanoTime() - lastReconcile >= reconcileIntervalNanos){
+            reconcile(false);
+            return isSet(accountId);
+        }
+        return false;
+    }
+
+
+    /**
+     * Records a newly registered account.
+     *
+     * @param accountId The id of the new account.
+     */
+    public synchronized void add(int accountId){
+        if(accountId < 0){
+            return;
+        }
+
+        int word = accountId >>> 6;
+        AtomicLongArray current = words;
+        if(word >= current.length()){
+            int length = current.length();
+            while(length <= word){
+                length <<= 1;
+            }
+            AtomicLongArray grown = new AtomicLongArray(length);
+            for(int i = 0; i < current.length(); i++){
+                grown.set(i, current.get(i));
+            }
+            words = grown;
+            current = grown;
+        }
+
+        current.set(word, current.get(word) | (1L << accountId));
+        if(accountId > maxId){
+            maxId = accountId;
+        }
+    }
+
+
+    /**
+     * Adds every account_id above the highest one already known, or every account_id if full is true.
+     */
+    private synchronized void reconcile(boolean full){
+        if(!full && System.nanoTime() - lastReconcile < reconcileIntervalNanos){
+            // Another thread reconciled while we waited for the lock
+            return;
+        }
+
+        String sql = "SELECT account_id FROM account WHERE account_id > ?";
+
+        try (Connection connect = ConnectionUtil.getConnection();
+            PreparedStatement preparedStatement = connect.prepareStatement(sql)){
+
+            preparedStatement.setInt(1, full ? -1 : maxId);
+
+            try(ResultSet resultSet = preparedStatement.executeQuery()){
+                while (resultSet.next()) {
+                    add(resultSet.getInt(1));
+                }
+            }
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Error loading account ids: " + e.getMessage(), e);
+        }
+
+        lastReconcile = System.nanoTime();
+        reconciliations.increment();
+    }
+
+
+    private boolean isSet(int accountId){
+        if(accountId < 0){
+            return false;
+        }
+        AtomicLongArray current = words;
+        int word = accountId >>> 6;
+        return word < current.length() && (current.get(word) & (1L << accountId)) != 0;
+    }
+
+
+    /** @return The highest account_id in the index. */
+    public int getMaxId(){
+        return maxId;
+    }
+
+    /** @return How many times the index has been read from the database, including the initial load. */
+    public long getReconcileCount(){
+        return reconciliations.sum();
+    }
+}
@@ -0,0 +1,398 @@
+package DAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import Model.Message;
+import Util.LatencyHistogram;
+import Util.PrometheusText;
+import Util.ServerTiming;
+
+/**
+ * Group commit for message inserts.
+ *
+ * Callers put messages on a bounded queue and block until they are written. A single writer thread
+ * takes whatever is queued, up to maxBatchSize rows or whatever arrives within maxDelayMicros of the
+ * first row, and inserts it with MessageDAO.createMessages in one transaction. A caller is only
+ * released once its batch has committed, so a message returned by write() is as durable as one
+ * returned by MessageDAO.createMessage.
+ *
+ * A message queued while close() runs is either written or failed, never left waiting: a caller that
+ * finds the writer closed after queueing takes its message back off the queue and fails it itself.
+ *
+ * The writer thread serves many requests at once, so nothing is bound to it for ServerTiming. Instead
+ * each message remembers the timing of the request that queued it, and the time its batch took is
+ * added to that request's dao phase before the request is released.
+ */
+public class GroupCommitMessageWriter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitMessageWriter.class);
+
+    /** The flush latency bucket bounds exposed to Prometheus, in seconds. */
+    private static final double[] FLUSH_BUCKET_BOUNDS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5};
+
+    private static final double[] FLUSH_QUANTILES = {0.5, 0.9, 0.99};
+
+    /** How long write() waits for its batch to commit unless told otherwise. */
+    public static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 30_000;
+
+    private final MessageDAO messageDAO;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long writeTimeoutMillis;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder rowsFlushed = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private volatile int lastBatchSize;
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    /** Flushes by batch size, slot i counting the batches of more than 2^(i-1) and at most 2^i rows. */
+    private final AtomicLongArray batchSizes = new AtomicLongArray(32);
+
+    /**
+     * @param messageDAO The DAO batches are written through.
+     * @param queueCapacity How many messages may wait before write() blocks.
+     * @param maxBatchSize The most rows written in one transaction.
+     * @param maxDelayMicros How long the writer waits for more rows after the first one arrives.
+     */
+    public GroupCommitMessageWriter(MessageDAO messageDAO, int queueCapacity, int maxBatchSize, long maxDelayMicros){
+        this(messageDAO, queueCapacity, maxBatchSize, maxDelayMicros, DEFAULT_WRITE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param messageDAO The DAO batches are written through.
+     * @param queueCapacity How many messages may wait before write() blocks.
+     * @param maxBatchSize The most rows written in one transaction.
+     * @param maxDelayMicros How long the writer waits for more rows after the first one arrives.
+     * @param writeTimeoutMillis How long write() waits for its batch to commit before giving up.
+     */
+    public GroupCommitMessageWriter(MessageDAO messageDAO, int queueCapacity, int maxBatchSize, long maxDelayMicros,
+            long writeTimeoutMillis){
+        this.messageDAO = messageDAO;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.writerThread = new Thread(this::run, "group-commit-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+
+    /**
+     * Queues a message and waits for the batch it lands in to commit.
+     *
+     * @param message A validated message to insert.
+     * @return The inserted message with its auto-generated message_id.
+     * @throws IllegalArgumentException If the posted_by user does not exist.
+     * @throws RuntimeException If the insert fails, the writer is closed, or the batch doesn't commit
+     *         within writeTimeoutMillis. After a timeout the message may still be written later.
+     */
+    public Message write(Message message){
+        if(closed){
+            throw new IllegalStateException("Group commit writer is closed");
+        }
+
+        PendingWrite pending = new PendingWrite(message);
+        try {
+            queue.put(pending);
+            failIfClosed(pending);
+            return pending.result.get(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for group commit", e);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Timed out after " + writeTimeoutMillis + "ms waiting for group commit", e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Error creating message: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+
+    /**
+     * Queues a message without waiting for it to be written.
+     *
+     * @param message A validated message to insert.
+     * @return A future completed with the inserted message once its batch commits, or failed like write().
+     *         It fails with a RejectedExecutionException straight away if the queue is full.
+     */
+    public CompletableFuture<Message> submit(Message message){
+        if(closed){
+            return CompletableFuture.failedFuture(new IllegalStateException("Group commit writer is closed"));
+        }
+
+        PendingWrite pending = new PendingWrite(message);
+        if(!queue.offer(pending)){
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Group commit queue is full"));
+        }
+        failIfClosed(pending);
+        // A copy, so the caller can't complete the writer's own future
+        return pending.result.copy();
+    }
+
+
+    /**
+     * Called after queueing. If close() started in the meantime, the writer and close() may both have
+     * finished with the queue already, so the message is taken back and failed here. If it is no
+     * longer on the queue, one of them has it and will complete it.
+     */
+    private void failIfClosed(PendingWrite pending){
+        if(closed && queue.remove(pending)){
+            pending.result.completeExceptionally(new IllegalStateException("Group commit writer is closed"));
+        }
+    }
+
+
+    private void run(){
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+
+        while(!closed || !queue.isEmpty()){
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null){
+                    continue;
+                }
+                batch.add(first);
+
+                // Keep collecting until the batch is full or the delay since the first row runs out
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while(batch.size() < maxBatchSize){
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if(batch.size() >= maxBatchSize || remaining <= 0){
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if(next == null){
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Group commit writer failed", e);
+                for(PendingWrite pending : batch){
+                    pending.result.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+
+    private void flush(List<PendingWrite> batch){
+        long start = System.nanoTime();
+
+        List<Message> messages = new ArrayList<>(batch.size());
+        for(PendingWrite pending : batch){
+            messages.add(pending.message);
+        }
+
+        // Settle every row before completing any future, so a writer that sees its message written
+        // also sees this flush in the metrics.
+        Message[] created = new Message[batch.size()];
+        RuntimeException[] failed = new RuntimeException[batch.size()];
+        try {
+            List<Message> rows = messageDAO.createMessages(messages);
+            long written = System.nanoTime() - start;
+            for(int i = 0; i < batch.size(); i++){
+                batch.get(i).addDaoTime(written);
+                created[i] = rows.get(i);
+            }
+        } catch (IllegalArgumentException e) {
+            // A posted_by in the batch doesn't exist and the whole transaction rolled back.
+            // Write the rows one at a time so only the bad ones fail.
+            for(int i = 0; i < batch.size(); i++){
+                PendingWrite pending = batch.get(i);
+                try {
+                    created[i] = messageDAO.createMessage(pending.message);
+                } catch (RuntimeException rowError) {
+                    failed[i] = rowError;
+                }
+                pending.addDaoTime(System.nanoTime() - start);
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        flushes.increment();
+        rowsFlushed.add(batch.size());
+        flushNanos.add(elapsed);
+        maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+        lastBatchSize = batch.size();
+        flushLatency.record(elapsed);
+        batchSizes.incrementAndGet(32 - Integer.numberOfLeadingZeros(batch.size() - 1));
+
+        for(int i = 0; i < batch.size(); i++){
+            if(failed[i] != null){
+                batch.get(i).result.completeExceptionally(failed[i]);
+            } else {
+                batch.get(i).result.complete(created[i]);
+            }
+        }
+    }
+
+
+    /** @return The number of messages waiting to be written. */
+    public int getQueueDepth(){
+        return queue.size();
+    }
+
+    /** @return The number of batches written so far. */
+    public long getFlushCount(){
+        return flushes.sum();
+    }
+
+    /** @return The number of messages written so far. */
+    public long getRowsFlushed(){
+        return rowsFlushed.sum();
+    }
+
+    /** @return The number of rows in the most recent batch. */
+    public int getLastBatchSize(){
+        return lastBatchSize;
+    }
+
+    /** @return The mean number of rows per batch, 0 before the first flush. */
+    public double getAverageBatchSize(){
+        long count = flushes.sum();
+        return count == 0 ? 0 : (double) rowsFlushed.sum() / count;
+    }
+
+    /** @return The mean time a batch took to write and commit, in microseconds. */
+    public double getAverageFlushMicros(){
+        long count = flushes.sum();
+        return count == 0 ? 0 : flushNanos.sum() / 1000.0 / count;
+    }
+
+    /** @return The slowest batch so far, in microseconds. */
+    public long getMaxFlushMicros(){
+        return TimeUnit.NANOSECONDS.toMicros(maxFlushNanos.get());
+    }
+
+    /** @return The time each batch took to write and commit. */
+    public LatencyHistogram getFlushHistogram(){
+        return flushLatency;
+    }
+
+    /**
+     * Writes the queue depth, the flush and row counters, and histograms of flush latency and batch
+     * size, the numbers that maxBatchSize and maxDelay are tuned by.
+     */
+    public void writeTo(PrometheusText prometheus){
+        prometheus.single("messages_group_commit_queue_depth", "gauge", "Messages waiting for a batch.", getQueueDepth());
+        prometheus.single("messages_group_commit_flushes_total", "counter", "Batches committed.", getFlushCount());
+        prometheus.single("messages_group_commit_rows_total", "counter", "Messages committed in batches.", getRowsFlushed());
+
+        prometheus.declare("messages_group_commit_flush_duration_seconds", "histogram", "Time to write and commit a batch.");
+        prometheus.histogram("messages_group_commit_flush_duration_seconds", flushLatency, FLUSH_BUCKET_BOUNDS);
+        prometheus.declare("messages_group_commit_flush_duration_quantiles_seconds", "summary",
+                "Quantiles of the batch commit time since start, within about 3%.");
+        prometheus.quantiles("messages_group_commit_flush_duration_quantiles_seconds", flushLatency, FLUSH_QUANTILES);
+        prometheus.single("messages_group_commit_flush_duration_max_seconds", "gauge", "The slowest batch so far.",
+                maxFlushNanos.get() / 1e9);
+
+        // Power of two buckets, up to the first one that holds a full batch
+        prometheus.declare("messages_group_commit_batch_size", "histogram", "Messages per committed batch.");
+        long flushed = 0;
+        for(int slot = 0; slot < batchSizes.length(); slot++){
+            flushed += batchSizes.get(slot);
+            long bound = 1L << slot;
+            prometheus.sample("messages_group_commit_batch_size_bucket", flushed, "le", Long.toString(bound));
+            if(bound >= maxBatchSize){
+                break;
+            }
+        }
+        long count = getFlushCount();
+        prometheus.sample("messages_group_commit_batch_size_bucket", count, "le", "+Inf");
+        prometheus.sample("messages_group_commit_batch_size_sum", getRowsFlushed());
+        prometheus.sample("messages_group_commit_batch_size_count", count);
+        prometheus.single("messages_group_commit_batch_size_last", "gauge", "Messages in the most recent batch.",
+                getLastBatchSize());
+    }
+
+    /**
+     * @return A one-line summary of the writer metrics, suitable for logging.
+     */
+    public String getStats(){
+        return "queueDepth=" + getQueueDepth() + ", flushes=" + getFlushCount() + ", rows=" + getRowsFlushed()
+                + ", avgBatchSize=" + String.format("%.1f", getAverageBatchSize())
+                + ", avgFlushMicros=" + String.format("%.0f", getAverageFlushMicros())
+                + ", maxFlushMicros=" + getMaxFlushMicros();
+    }
+
+
+    /**
+     * Stops accepting messages, writes whatever is still queued and stops the writer thread.
+     */
+    @Override
+    public void close(){
+        // Not interrupted: an interrupt during a write can make H2 close its file channel.
+        // The writer polls with a timeout, so it notices closed on its own.
+        closed = true;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything that slipped in after the writer stopped
+        PendingWrite pending;
+        while((pending = queue.poll()) != null){
+            pending.result.completeExceptionally(new IllegalStateException("Group commit writer is closed"));
+        }
+    }
+
+
+    /**
+     * A queued message, the future its caller is waiting on, and the caller's ServerTiming if it has one.
+     */
+    private static class PendingWrite {
+
+        private final Message message;
+        private final CompletableFuture<Message> result = new CompletableFuture<>();
+        private final ServerTiming timing;
+        private final long timingGeneration;
+
+        PendingWrite(Message message){
+            this.message = message;
+            this.timing = ServerTiming.current();
+            this.timingGeneration = timing == null ? 0 : timing.getGeneration();
+        }
+
+        /**
+         * Adds to the caller's dao phase. Only called before result completes, which hands the timing back.
+         */
+        void addDaoTime(long nanos){
+            if(timing != null && timing.getGeneration() == timingGeneration){
+                timing.add(ServerTiming.DAO, nanos);
+            }
+        }
+    }
+}
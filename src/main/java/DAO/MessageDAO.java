@@ -1,8 +1,14 @@
 package DAO;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+
+import org.h2.api.ErrorCode;
 
 import Model.Message;
 import Util.ConnectionUtil;
@@ -10,13 +16,37 @@ import Util.ConnectionUtil;
 
 public class MessageDAO {
 
-    
+    /** Rows fetched per round trip by the streaming reads. */
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    /**
+     * An account's messages in time order. H2 costs the foreign key's own single column index the same as
+     * the (posted_by, time_posted_epoch) index added by migration V2, so the hint makes it pick the latter.
+     */
+    public static final String MESSAGES_BY_USER_SQL = "SELECT * FROM message USE INDEX (idx_message_posted_by_time) "
+            + "WHERE posted_by = ? ORDER BY time_posted_epoch, message_id";
+
+    /** Answers doesUserExist and findExistingUsers without a query when set. */
+    private final AccountIdIndex accountIndex;
+
+    public MessageDAO(){
+        this(null);
+    }
+
+    /**
+     * @param accountIndex The in-memory set of account_ids to check posted_by against,
+     *                     or null to query the account table every time.
+     */
+    public MessageDAO(AccountIdIndex accountIndex){
+        this.accountIndex = accountIndex;
+    }
+
     /**
      * Inserts a new message into the database
      * 
      * @param message The Message object containing the message text and posted_by user ID
      * @return The newly created Message object with its aut-generated message_id.
-     * @throws IllegalArgumentException If the user (posted_by) does not exist.
+     * @throws IllegalArgumentException If the user (posted_by) does not exist, detected by the foreign key.
      */
 
      public Message createMessage(Message message){
@@ -44,11 +74,82 @@ public class MessageDAO {
                 }
             
         } catch (SQLException e) {
+            if(isMissingParent(e)){
+                throw new IllegalArgumentException("The user does not exist");
+            }
             throw new RuntimeException("Error creating message: " + e.getMessage());
         }
      }
 
 
+     /**
+      * @return True if the exception is H2 rejecting a row because its posted_by has no matching account.
+      */
+     private static boolean isMissingParent(SQLException e){
+        return e != null && e.getErrorCode() == ErrorCode.REFERENTIAL_INTEGRITY_VIOLATED_PARENT_MISSING_1;
+     }
+
+
+     /**
+      * Inserts several messages with one JDBC batch inside a single transaction.
+      *
+      * Either every message is inserted or, if any row fails, none are.
+      *
+      * @param messages The messages to insert. Their posted_by users must exist.
+      * @return The inserted messages with their auto-generated message_ids, in the same order.
+      * @throws IllegalArgumentException If a posted_by user does not exist.
+      */
+     public List<Message> createMessages(List<Message> messages){
+
+        String sql = "INSERT INTO message (message_text, posted_by, time_posted_epoch) VALUES (?, ?, ?)";
+        List<Message> created = new ArrayList<>(messages.size());
+
+        if(messages.isEmpty()){
+            return created;
+        }
+
+        try (Connection connect = ConnectionUtil.getConnection()){
+
+            connect.setAutoCommit(false);
+            try(PreparedStatement preparedStatement = connect.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)){
+
+                for(Message message : messages){
+                    preparedStatement.setString(1, message.getMessage_text());
+                    preparedStatement.setInt(2, message.getPosted_by());
+                    preparedStatement.setLong(3, message.getTime_posted_epoch());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+
+                // Generated keys come back in the order the rows were added to the batch
+                try(ResultSet generatedKeys = preparedStatement.getGeneratedKeys()){
+                    for(Message message : messages){
+                        if(!generatedKeys.next()){
+                            throw new SQLException("Failed to obtain message ID");
+                        }
+                        created.add(new Message(generatedKeys.getInt(1), message.getPosted_by(),
+                                message.getMessage_text(), message.getTime_posted_epoch()));
+                    }
+                }
+                connect.commit();
+            } catch (SQLException e) {
+                connect.rollback();
+                throw e;
+            } finally {
+                connect.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            if(isMissingParent(e) || isMissingParent(e.getNextException())){
+                throw new IllegalArgumentException("The user does not exist");
+            }
+            throw new RuntimeException("Error creating messages: " + e.getMessage(), e);
+        }
+
+        return created;
+     }
+
+
      /**
       * Checks if a user with the given account_id exists in the database.
       *
@@ -57,6 +158,10 @@ public class MessageDAO {
       */
 
       public boolean doesUserExist(int accountId){
+
+        if(accountIndex != null){
+            return accountIndex.contains(accountId);
+        }
         
         String sql = "SELECT 1 FROM account WHERE account_id = ?";
 
@@ -75,6 +180,49 @@ public class MessageDAO {
     }
 
 
+    /**
+     * Finds which of the given account_ids exist, with one query however many ids there are.
+     *
+     * @param accountIds The account_ids to check.
+     * @return The subset of accountIds that exist in the database.
+     */
+    public Set<Integer> findExistingUsers(Collection<Integer> accountIds){
+
+        String sql = "SELECT account_id FROM account WHERE account_id = ANY(?)";
+        Set<Integer> existing = new HashSet<>();
+
+        if(accountIds.isEmpty()){
+            return existing;
+        }
+
+        if(accountIndex != null){
+            for(int accountId : accountIds){
+                if(accountIndex.contains(accountId)){
+                    existing.add(accountId);
+                }
+            }
+            return existing;
+        }
+
+        try (Connection connect = ConnectionUtil.getConnection();
+            PreparedStatement preparedStatement = connect.prepareStatement(sql)){
+
+            preparedStatement.setArray(1, connect.createArrayOf("INTEGER", accountIds.toArray()));
+
+            try(ResultSet resultSet = preparedStatement.executeQuery()){
+                while (resultSet.next()) {
+                    existing.add(resultSet.getInt(1));
+                }
+            }
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Error checking if users exist: " + e.getMessage(), e);
+        }
+
+        return existing;
+    }
+
+
     /**
      * Retrives all messages from the database.
      * 
@@ -112,6 +260,147 @@ public class MessageDAO {
     }
 
 
+    /**
+     * Retrieves up to limit messages with a message_id greater than afterId, in ascending order.
+     * The WHERE clause seeks into the primary key index, so every page costs the same no matter how deep it is.
+     *
+     * @param afterId The exclusive lower bound on message_id, 0 for the first page.
+     * @param limit The maximum number of messages to return.
+     * @return A list of Message objects ordered by message_id.
+     */
+    public List<Message> getMessagesAfterId(int afterId, int limit){
+
+        String sql = "SELECT * FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+        List<Message> messages = new ArrayList<>();
+
+        try (Connection connect = ConnectionUtil.getConnection();
+            PreparedStatement preparedStatement = connect.prepareStatement(sql)){
+
+                preparedStatement.setInt(1, afterId);
+                preparedStatement.setInt(2, limit);
+
+                try(ResultSet resultSet = preparedStatement.executeQuery()){
+                    while (resultSet.next()) {
+                        messages.add(mapMessage(resultSet));
+                    }
+                }
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Error retrieving messages page: " + e.getMessage(), e);
+        }
+
+        return messages;
+    }
+
+
+    /**
+     * Retrieves up to limit messages with a message_id less than beforeId, closest to beforeId first.
+     *
+     * @param beforeId The exclusive upper bound on message_id.
+     * @param limit The maximum number of messages to return.
+     * @return A list of Message objects ordered by message_id descending.
+     */
+    public List<Message> getMessagesBeforeId(int beforeId, int limit){
+
+        String sql = "SELECT * FROM message WHERE message_id < ? ORDER BY message_id DESC LIMIT ?";
+        List<Message> messages = new ArrayList<>();
+
+        try (Connection connect = ConnectionUtil.getConnection();
+            PreparedStatement preparedStatement = connect.prepareStatement(sql)){
+
+                preparedStatement.setInt(1, beforeId);
+                preparedStatement.setInt(2, limit);
+
+                try(ResultSet resultSet = preparedStatement.executeQuery()){
+                    while (resultSet.next()) {
+                        messages.add(mapMessage(resultSet));
+                    }
+                }
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Error retrieving messages page: " + e.getMessage(), e);
+        }
+
+        return messages;
+    }
+
+
+    /**
+     * Streams every message to the handler without holding them all in memory.
+     *
+     * @param handler Receives each row as it is read.
+     * @throws IOException If the handler fails to write a row.
+     */
+    public void streamAllMessages(MessageRowHandler handler) throws IOException {
+        streamMessages("SELECT * FROM message ORDER BY message_id", null, handler);
+    }
+
+
+    /**
+     * Streams every message written by a specific user to the handler without holding them all in memory.
+     *
+     * @param accountId The ID of the user whose messages are streamed.
+     * @param handler Receives each row as it is read.
+     * @throws IOException If the handler fails to write a row.
+     */
+    public void streamMessagesByUserId(int accountId, MessageRowHandler handler) throws IOException {
+        streamMessages(MESSAGES_BY_USER_SQL, accountId, handler);
+    }
+
+
+    /**
+     * Runs a query with H2's lazy query execution switched on, so rows are produced as the result set
+     * is read instead of being materialized up front, and hands each row to the handler.
+     */
+    private void streamMessages(String sql, Integer accountId, MessageRowHandler handler) throws IOException {
+
+        try (Connection connect = ConnectionUtil.getConnection()){
+
+            setLazyQueryExecution(connect, true);
+            try(PreparedStatement preparedStatement = connect.prepareStatement(sql)){
+
+                preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+                if(accountId != null){
+                    preparedStatement.setInt(1, accountId);
+                }
+
+                try(ResultSet resultSet = preparedStatement.executeQuery()){
+                    while (resultSet.next()) {
+                        handler.handle(resultSet.getInt("message_id"), resultSet.getInt("posted_by"),
+                                resultSet.getString("message_text"), resultSet.getLong("time_posted_epoch"));
+                    }
+                }
+            } finally {
+                // The connection goes back to the pool, don't leave the session setting behind
+                setLazyQueryExecution(connect, false);
+            }
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Error streaming messages: " + e.getMessage(), e);
+        }
+    }
+
+
+    private void setLazyQueryExecution(Connection connect, boolean lazy) throws SQLException {
+        try(Statement statement = connect.createStatement()){
+            statement.execute(lazy ? "SET LAZY_QUERY_EXECUTION TRUE" : "SET LAZY_QUERY_EXECUTION FALSE");
+        }
+    }
+
+
+    /**
+     * Builds a Message from the current row of a result set over the message table.
+     */
+    private Message mapMessage(ResultSet resultSet) throws SQLException {
+        int messageId = resultSet.getInt("message_id");
+        String messageText = resultSet.getString("message_text");
+        int postedBy = resultSet.getInt("posted_by");
+        long timePosted = resultSet.getLong("time_posted_epoch");
+
+        return new Message(messageId, postedBy, messageText, timePosted);
+    }
+
+
 
     /**
      * Retrives a message from the databse by its ID.
@@ -151,39 +440,28 @@ public class MessageDAO {
 
     /**
      * Deletes a message fro mthe database by its ID.
+     *
+     * The DELETE runs inside an OLD TABLE delta table, so the row is removed and returned by one
+     * atomic statement. Two concurrent deletes can't both see the message.
      * 
      * @param messageId The ID of the message to delete.
      * @return The deleted message object if it existed, or null if no such message existed.
      */
     public Message deleteMessageById(int messageId){
 
-        String selectSQL = "SELECT * FROM message WHERE message_id = ?";
-        String deleteSQL = "DELETE FROM message WHERE message_id = ?";
+        String sql = "SELECT * FROM OLD TABLE (DELETE FROM message WHERE message_id = ?)";
 
-        try (Connection connect = ConnectionUtil.getConnection()){
+        try (Connection connect = ConnectionUtil.getConnection();
+            PreparedStatement preparedStatement = connect.prepareStatement(sql)){
 
-            try(PreparedStatement selectStmt = connect.prepareStatement(selectSQL)){
-                selectStmt.setInt(1, messageId);
+                preparedStatement.setInt(1, messageId);
 
-                try(ResultSet resultSet = selectStmt.executeQuery()){
+                try(ResultSet resultSet = preparedStatement.executeQuery()){
                     if(resultSet.next()){
-                        int id = resultSet.getInt("message_id");
-                        String messageText = resultSet.getString("message_text");
-                        int postedBy = resultSet.getInt("posted_by");
-                        long timePosted = resultSet.getLong("time_posted_epoch");
-
-                        Message message = new Message(id, postedBy, messageText, timePosted);
-
-                        try(PreparedStatement deleteStmt = connect.prepareStatement(deleteSQL)){
-                            deleteStmt.setInt(1, messageId);
-                            deleteStmt.executeUpdate();
-                        }
-
                         // The deleted message
-                        return message;
+                        return mapMessage(resultSet);
                     }
                 }
-            }
             
         } catch (SQLException e) {
             throw new RuntimeException("Error deleting message by ID: " + e.getMessage());
@@ -197,42 +475,49 @@ public class MessageDAO {
 
     /**
      * Updates the message_text of a message identified by its ID.
-     * 
+     *
      * @param messageID The ID of the message to update
      * @param newMessageText The new text for the message
      * @return Thee updated Message object if successful, or null if the message does not exist.
-     * @throws IllegalArgumentException If the message does not exist or the update fails.
+     * @see #replaceMessageText(int, String)
      */
     public Message updMessageTextByID(int messageID, String newMessageText){
+        Message previous = replaceMessageText(messageID, newMessageText);
+        if(previous == null){
+            return null;
+        }
+        return new Message(previous.getMessage_id(), previous.getPosted_by(), newMessageText,
+                previous.getTime_posted_epoch());
+    }
 
-        String selectSQL = "SELECT * FROM message WHERE message_id = ?";
-        String updateSQL = "UPDATE message SET message_text = ? WHERE message_id = ?";
 
-        try (Connection connect = ConnectionUtil.getConnection()){
-            
-            try(PreparedStatement selectStmt = connect.prepareStatement(selectSQL)){
-                selectStmt.setInt(1, messageID);
+    /**
+     * Updates the message_text of a message identified by its ID and returns the row as it was.
+     *
+     * The UPDATE runs inside an OLD TABLE delta table, so the row is changed and its previous text
+     * read back by one atomic statement instead of a SELECT followed by an UPDATE. The search index
+     * needs the previous text to drop the terms the message no longer contains.
+     *
+     * @param messageID The ID of the message to update
+     * @param newMessageText The new text for the message
+     * @return The message as it was before the update, or null if the message does not exist.
+     */
+    public Message replaceMessageText(int messageID, String newMessageText){
 
-                try(ResultSet resultSet = selectStmt.executeQuery()){
-                    if(resultSet.next()){
+        String sql = "SELECT * FROM OLD TABLE (UPDATE message SET message_text = ? WHERE message_id = ?)";
+
+        try (Connection connect = ConnectionUtil.getConnection();
+            PreparedStatement preparedStatement = connect.prepareStatement(sql)){
+
+                preparedStatement.setString(1, newMessageText);
+                preparedStatement.setInt(2, messageID);
 
-                        try(PreparedStatement updateStmt = connect.prepareStatement(updateSQL)){
-                            updateStmt.setString(1, newMessageText);
-                            updateStmt.setInt(2, messageID);
-                            int rowsUpdated = updateStmt.executeUpdate();
-                      
-                            if(rowsUpdated > 0){
-                                int id = resultSet.getInt("message_id");
-                                String messageText = newMessageText;
-                                int postedBy = resultSet.getInt("posted_by");
-                                long timePosted = resultSet.getLong("time_posted_epoch");
-    
-                                return new Message(id, postedBy, messageText, timePosted);
-                            }
-                        }    
+                try(ResultSet resultSet = preparedStatement.executeQuery()){
+                    if(resultSet.next()){
+                        return mapMessage(resultSet);
                     }
                 }
-            }
+
         } catch (SQLException e) {
             throw new RuntimeException("Error updating message text: " + e.getMessage(), e);
         }
@@ -242,16 +527,55 @@ public class MessageDAO {
     }
 
 
+    /**
+     * Retrieves the messages with the given IDs in one query.
+     *
+     * @param messageIds The IDs to look up.
+     * @return The messages that exist, ordered by message_id.
+     */
+    public List<Message> getMessagesByIds(int[] messageIds){
+
+        String sql = "SELECT * FROM message WHERE message_id = ANY(?) ORDER BY message_id";
+        List<Message> messages = new ArrayList<>(messageIds.length);
+
+        if(messageIds.length == 0){
+            return messages;
+        }
+
+        Integer[] ids = new Integer[messageIds.length];
+        for(int i = 0; i < messageIds.length; i++){
+            ids[i] = messageIds[i];
+        }
+
+        try (Connection connect = ConnectionUtil.getConnection();
+            PreparedStatement preparedStatement = connect.prepareStatement(sql)){
+
+            preparedStatement.setArray(1, connect.createArrayOf("INTEGER", ids));
+
+            try(ResultSet resultSet = preparedStatement.executeQuery()){
+                while (resultSet.next()) {
+                    messages.add(mapMessage(resultSet));
+                }
+            }
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Error retrieving messages by ID: " + e.getMessage(), e);
+        }
+
+        return messages;
+    }
+
+
 
     /**
      * Retrieves all messages written by a specific user from the database.
      * 
      * @param accountId The ID of the user whose messages need to be retrieved.
-     * @return A list of Message objects written by the user, or an empty list if no messages exist.
+     * @return A list of Message objects written by the user, oldest first, or an empty list if no messages exist.
      */
     public List<Message> getMessagesByUserId(int accountId){
 
-        String sql = "SELECT * FROM message WHERE posted_by = ?";
+        String sql = MESSAGES_BY_USER_SQL;
         List<Message> messages = new ArrayList<>();
 
         try(Connection connect = ConnectionUtil.getConnection();
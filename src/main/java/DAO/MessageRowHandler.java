@@ -0,0 +1,22 @@
+package DAO;
+
+import java.io.IOException;
+
+/**
+ * Receives message rows one at a time while a streaming query is running, so a caller can write
+ * each row out without the DAO building a List of every message first.
+ */
+@FunctionalInterface
+public interface MessageRowHandler {
+
+    /**
+     * Called once for every row, in result set order.
+     *
+     * @param messageId The message_id of the row.
+     * @param postedBy The posted_by of the row.
+     * @param messageText The message_text of the row.
+     * @param timePostedEpoch The time_posted_epoch of the row.
+     * @throws IOException If the row cannot be written, which stops the query.
+     */
+    void handle(int messageId, int postedBy, String messageText, long timePostedEpoch) throws IOException;
+}
@@ -1,12 +1,27 @@
 package DAO;
 import java.sql.*;
 
+import org.h2.api.ErrorCode;
+
 import Model.Account;
 import Util.ConnectionUtil;
 
 
 public class UserDAO {
 
+    /** Told about every account registered here, may be null. */
+    private final AccountIdIndex accountIndex;
+
+    public UserDAO(){
+        this(null);
+    }
+
+    /**
+     * @param accountIndex The in-memory set of account_ids to add new accounts to, or null.
+     */
+    public UserDAO(AccountIdIndex accountIndex){
+        this.accountIndex = accountIndex;
+    }
 
     /**
      * Registers a new user in the database by inserting their username and password
@@ -14,6 +29,7 @@ public class UserDAO {
      * @param userName The username of the new user (must be unique)
      * @param password The password of the new user.
      * @return An Account object representing the newly created user, including the auto-generated ID
+     * @throws IllegalArgumentException if the username is already taken, detected by the unique constraint
      * @throws RuntimeException if there is a database-related error or the account ID cannot be obtained
      */
     public Account registerUser(String userName, String password){
@@ -32,6 +48,9 @@ public class UserDAO {
                 try(ResultSet generatedKeys = preparedStatement.getGeneratedKeys()){
                     if(generatedKeys.next()){
                         int id = generatedKeys.getInt(1); //Auto-generated ID
+                        if(accountIndex != null){
+                            accountIndex.add(id);
+                        }
                         return new Account(id, userName, password);
                     } else{
                         throw new SQLException("no account ID Obtained");
@@ -39,6 +58,10 @@ public class UserDAO {
                 }
             
         } catch (SQLException e) {
+            // Another registration for the same username committed first
+            if(e.getErrorCode() == ErrorCode.DUPLICATE_KEY_1){
+                throw new IllegalArgumentException("Username already exists");
+            }
             throw new RuntimeException("Error Registering User");
         }
     }
@@ -70,6 +93,38 @@ public class UserDAO {
 
 
 
+    /**
+     * Looks up an account by its username.
+     *
+     * @param userName The username to look up
+     * @return The Account with that username, including its password, or null if there is none
+     * @throws RuntimeException if a database error occurs
+     */
+    public Account getAccountByUsername(String userName){
+
+        String sql = "SELECT * FROM account WHERE username = ?";
+
+        try (Connection connect = ConnectionUtil.getConnection();
+        PreparedStatement preparedStatement = connect.prepareStatement(sql)){
+
+            preparedStatement.setString(1, userName);
+
+            try(ResultSet resultSet = preparedStatement.executeQuery()){
+                if (resultSet.next()){
+                    return new Account(resultSet.getInt("account_id"), resultSet.getString("username"),
+                            resultSet.getString("password"));
+                }
+            }
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Error looking up account: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+
+
     /**
      * Validates login credentials by checking if the provided username and password
      * match a recrod in the database
@@ -0,0 +1,128 @@
+package Model;
+
+import java.util.Objects;
+
+/**
+ * This is a class that models the outcome of one item in a POST /messages/batch request.
+ */
+public class BatchItemResult {
+    /**
+     * The position of the item in the request array.
+     */
+    public int index;
+    /**
+     * 200 if the message was created, 400 if it failed validation.
+     */
+    public int status;
+    /**
+     * The created message, including its message_id, or null if the item failed.
+     */
+    public Message message;
+    /**
+     * Why the item failed, or null if it was created.
+     */
+    public String error;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public BatchItemResult(){
+    }
+    /**
+     * @param index
+     * @param status
+     * @param message
+     * @param error
+     */
+    public BatchItemResult(int index, int status, Message message, String error){
+        this.index = index;
+        this.status = status;
+        this.message = message;
+        this.error = error;
+    }
+    /**
+     * @param index
+     * @param message the created message
+     * @return a result for an item that was created
+     */
+    public static BatchItemResult created(int index, Message message){
+        return new BatchItemResult(index, 200, message, null);
+    }
+    /**
+     * @param index
+     * @param error why the item was rejected
+     * @return a result for an item that failed validation
+     */
+    public static BatchItemResult rejected(int index, String error){
+        return new BatchItemResult(index, 400, null, error);
+    }
+    /**
+     * @return index
+     */
+    public int getIndex() {
+        return index;
+    }
+    /**
+     * @param index
+     */
+    public void setIndex(int index) {
+        this.index = index;
+    }
+    /**
+     * @return status
+     */
+    public int getStatus() {
+        return status;
+    }
+    /**
+     * @param status
+     */
+    public void setStatus(int status) {
+        this.status = status;
+    }
+    /**
+     * @return message
+     */
+    public Message getMessage() {
+        return message;
+    }
+    /**
+     * @param message
+     */
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+    /**
+     * @return error
+     */
+    public String getError() {
+        return error;
+    }
+    /**
+     * @param error
+     */
+    public void setError(String error) {
+        this.error = error;
+    }
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BatchItemResult that = (BatchItemResult) o;
+        return index == that.index && status == that.status
+                && Objects.equals(message, that.message) && Objects.equals(error, that.error);
+    }
+    @Override
+    public int hashCode() {
+        return Objects.hash(index, status, error);
+    }
+    @Override
+    public String toString() {
+        return "BatchItemResult{" +
+                "index=" + index +
+                ", status=" + status +
+                ", message=" + message +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
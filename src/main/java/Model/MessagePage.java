@@ -0,0 +1,76 @@
+package Model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This is a class that models one page of messages returned by a paginated GET /messages.
+ */
+public class MessagePage {
+    /**
+     * The messages on this page, ordered by message_id.
+     */
+    public List<Message> messages;
+    /**
+     * An opaque cursor that continues in the same direction as this page, or null if this is the last page.
+     */
+    public String next_cursor;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public MessagePage(){
+        this.messages = new ArrayList<>();
+    }
+    /**
+     * @param messages
+     * @param next_cursor
+     */
+    public MessagePage(List<Message> messages, String next_cursor){
+        this.messages = messages;
+        this.next_cursor = next_cursor;
+    }
+    /**
+     * @return messages
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+    /**
+     * @param messages
+     */
+    public void setMessages(List<Message> messages) {
+        this.messages = messages;
+    }
+    /**
+     * @return next_cursor
+     */
+    public String getNext_cursor() {
+        return next_cursor;
+    }
+    /**
+     * @param next_cursor
+     */
+    public void setNext_cursor(String next_cursor) {
+        this.next_cursor = next_cursor;
+    }
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MessagePage page = (MessagePage) o;
+        return messages.equals(page.messages) && Objects.equals(next_cursor, page.next_cursor);
+    }
+    @Override
+    public int hashCode() {
+        return Objects.hash(messages, next_cursor);
+    }
+    @Override
+    public String toString() {
+        return "MessagePage{" +
+                "messages=" + messages +
+                ", next_cursor='" + next_cursor + '\'' +
+                '}';
+    }
+}
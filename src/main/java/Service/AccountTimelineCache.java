@@ -0,0 +1,374 @@
+package Service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+import Model.Message;
+
+/**
+ * Caches each account's full message list, in the order GET /accounts/{account_id}/messages returns it.
+ *
+ * Cached timelines are kept current instead of being dropped: new messages are inserted, edited ones
+ * replaced and deleted ones removed. A timeline is an immutable array that is swapped on every change,
+ * so readers get a stable list without copying it.
+ *
+ * Memory is bounded by an estimate of the bytes held across all accounts. When the estimate goes over
+ * the budget, a handful of cached accounts are sampled and the least recently read one is dropped,
+ * until the estimate is back under it.
+ *
+ * Reads take no lock, a hit only stamps the timeline with the time it was read. Writes to the same
+ * account are serialized by a striped lock, so writes to different accounts rarely wait on each other.
+ */
+public class AccountTimelineCache {
+
+    /** The same order as MessageDAO.MESSAGES_BY_USER_SQL. */
+    private static final Comparator<Message> TIMELINE_ORDER = Comparator
+            .comparingLong(Message::getTime_posted_epoch)
+            .thenComparingInt(Message::getMessage_id);
+
+    /** Rough per-message overhead: the object, its String and the array slot. */
+    private static final long MESSAGE_OVERHEAD_BYTES = 96;
+
+    private static final int STRIPES = 1024;
+    private static final int SAMPLE_SIZE = 8;
+
+    private final long maxBytes;
+    private final ConcurrentHashMap<Integer, Timeline> timelines = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** Serialize the writes to the accounts of a stripe, and guard its generation. */
+    private final Object[] stripeLocks = new Object[STRIPES];
+
+    /**
+     * Bumped when a write touches an account that isn't cached, so a load of that account
+     * already in flight doesn't publish a list that misses the write.
+     */
+    private final long[] generations = new long[STRIPES];
+
+    private final Object evictionLock = new Object();
+    private Iterator<Integer> evictionCursor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes The estimated memory all cached timelines together may use.
+     */
+    public AccountTimelineCache(long maxBytes){
+        this.maxBytes = maxBytes;
+        for(int i = 0; i < STRIPES; i++){
+            stripeLocks[i] = new Object();
+        }
+    }
+
+
+    /**
+     * Returns an account's timeline, loading it with loader if it isn't cached.
+     *
+     * @param accountId The account whose messages are wanted.
+     * @param loader Loads the timeline from the database, in timeline order.
+     * @return An unmodifiable list of the account's messages.
+     */
+    public List<Message> get(int accountId, IntFunction<List<Message>> loader){
+        Timeline cached = timelines.get(accountId);
+        if(cached != null){
+            cached.lastRead = System.nanoTime();
+            hits.increment();
+            return cached.asList();
+        }
+        misses.increment();
+
+        int stripe = stripe(accountId);
+        long generation;
+        synchronized (stripeLocks[stripe]) {
+            generation = generations[stripe];
+        }
+
+        Message[] loaded = loader.apply(accountId).toArray(new Message[0]);
+        Timeline timeline = new Timeline(loaded, estimateBytes(loaded), System.nanoTime());
+
+        boolean published = false;
+        synchronized (stripeLocks[stripe]) {
+            if(generations[stripe] == generation && timeline.bytes <= maxBytes
+                    && timelines.putIfAbsent(accountId, timeline) == null){
+                bytes.addAndGet(timeline.bytes);
+                published = true;
+            }
+        }
+        if(published){
+            evictColdAccounts();
+        }
+        return timeline.asList();
+    }
+
+
+    /**
+     * Returns an account's timeline if it is cached, without loading it. A miss isn't counted, as the
+     * caller is expected to follow it with get().
+     *
+     * @param accountId The account whose messages are wanted.
+     * @return An unmodifiable list of the account's messages, or null if it isn't cached.
+     */
+    public List<Message> getIfPresent(int accountId){
+        Timeline cached = timelines.get(accountId);
+        if(cached == null){
+            return null;
+        }
+        cached.lastRead = System.nanoTime();
+        hits.increment();
+        return cached.asList();
+    }
+
+
+    /**
+     * Adds a newly created message to its author's timeline, if that timeline is cached.
+     *
+     * @param message The created message, including its message_id.
+     */
+    public void added(Message message){
+        int stripe = stripe(message.getPosted_by());
+        synchronized (stripeLocks[stripe]) {
+            addedLocked(message, stripe);
+        }
+        evictColdAccounts();
+    }
+
+    private void addedLocked(Message message, int stripe){
+        Timeline timeline = cachedOrMarkStale(message.getPosted_by(), stripe);
+        if(timeline == null){
+            return;
+        }
+
+        Message[] messages = timeline.messages;
+        int position = Arrays.binarySearch(messages, message, TIMELINE_ORDER);
+        if(position >= 0){
+            return;
+        }
+        position = -position - 1;
+
+        Message[] updated = new Message[messages.length + 1];
+        System.arraycopy(messages, 0, updated, 0, position);
+        updated[position] = message;
+        System.arraycopy(messages, position, updated, position + 1, messages.length - position);
+        replace(message.getPosted_by(), stripe, timeline, new Timeline(updated, timeline.bytes + estimateBytes(message), timeline.lastRead));
+    }
+
+
+    /**
+     * Replaces an edited message in its author's timeline, if that timeline is cached.
+     *
+     * @param message The message as it is after the update.
+     */
+    public void updated(Message message){
+        int stripe = stripe(message.getPosted_by());
+        synchronized (stripeLocks[stripe]) {
+            updatedLocked(message, stripe);
+        }
+        evictColdAccounts();
+    }
+
+    private void updatedLocked(Message message, int stripe){
+        Timeline timeline = cachedOrMarkStale(message.getPosted_by(), stripe);
+        if(timeline == null){
+            return;
+        }
+
+        Message[] messages = timeline.messages;
+        int position = Arrays.binarySearch(messages, message, TIMELINE_ORDER);
+        if(position < 0){
+            return;
+        }
+
+        Message[] updated = messages.clone();
+        updated[position] = message;
+        long size = timeline.bytes - estimateBytes(messages[position]) + estimateBytes(message);
+        replace(message.getPosted_by(), stripe, timeline, new Timeline(updated, size, timeline.lastRead));
+    }
+
+
+    /**
+     * Removes a deleted message from its author's timeline, if that timeline is cached.
+     *
+     * @param message The message that was deleted.
+     */
+    public void removed(Message message){
+        int stripe = stripe(message.getPosted_by());
+        synchronized (stripeLocks[stripe]) {
+            removedLocked(message, stripe);
+        }
+        evictColdAccounts();
+    }
+
+    private void removedLocked(Message message, int stripe){
+        Timeline timeline = cachedOrMarkStale(message.getPosted_by(), stripe);
+        if(timeline == null){
+            return;
+        }
+
+        Message[] messages = timeline.messages;
+        int position = Arrays.binarySearch(messages, message, TIMELINE_ORDER);
+        if(position < 0){
+            return;
+        }
+
+        Message[] updated = new Message[messages.length - 1];
+        System.arraycopy(messages, 0, updated, 0, position);
+        System.arraycopy(messages, position + 1, updated, position, updated.length - position);
+        replace(message.getPosted_by(), stripe, timeline,
+                new Timeline(updated, timeline.bytes - estimateBytes(messages[position]), timeline.lastRead));
+    }
+
+
+    /**
+     * @return The cached timeline, or null after marking the account so that in-flight loads of it are discarded.
+     */
+    private Timeline cachedOrMarkStale(int accountId, int stripe){
+        Timeline timeline = timelines.get(accountId);
+        if(timeline == null){
+            generations[stripe]++;
+        }
+        return timeline;
+    }
+
+
+    /**
+     * Swaps in a patched timeline, called with the account's stripe lock held. If the account was
+     * evicted in the meantime, it is marked stale instead, as for any uncached account.
+     */
+    private void replace(int accountId, int stripe, Timeline old, Timeline timeline){
+        if(timelines.replace(accountId, old, timeline)){
+            bytes.addAndGet(timeline.bytes - old.bytes);
+        } else {
+            generations[stripe]++;
+        }
+    }
+
+
+    /**
+     * Drops sampled accounts, least recently read first, until the estimate is within the budget.
+     */
+    private void evictColdAccounts(){
+        if(bytes.get() <= maxBytes){
+            return;
+        }
+        synchronized (evictionLock) {
+            while(bytes.get() > maxBytes){
+                Integer victim = sampleVictim();
+                if(victim == null){
+                    return;
+                }
+                Timeline timeline = timelines.get(victim);
+                if(timeline != null && timelines.remove(victim, timeline)){
+                    bytes.addAndGet(-timeline.bytes);
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks at up to SAMPLE_SIZE cached accounts, continuing where the previous sample stopped, and
+     * returns the one read longest ago.
+     */
+    private Integer sampleVictim(){
+        Integer victim = null;
+        long victimRead = 0;
+        for(int i = 0; i < SAMPLE_SIZE; i++){
+            if(evictionCursor == null || !evictionCursor.hasNext()){
+                evictionCursor = timelines.keySet().iterator();
+                if(!evictionCursor.hasNext()){
+                    break;
+                }
+            }
+            Integer accountId = evictionCursor.next();
+            Timeline timeline = timelines.get(accountId);
+            if(timeline != null && (victim == null || timeline.lastRead - victimRead < 0)){
+                victim = accountId;
+                victimRead = timeline.lastRead;
+            }
+        }
+        return victim;
+    }
+
+
+    private static long estimateBytes(Message[] messages){
+        long size = 0;
+        for(Message message : messages){
+            size += estimateBytes(message);
+        }
+        return size;
+    }
+
+    private static long estimateBytes(Message message){
+        String text = message.getMessage_text();
+        return MESSAGE_OVERHEAD_BYTES + (text == null ? 0 : 2L * text.length());
+    }
+
+    private static int stripe(int accountId){
+        return (accountId ^ (accountId >>> 16)) & (STRIPES - 1);
+    }
+
+
+    /** @return The number of accounts whose timeline is cached. */
+    public int getAccountCount(){
+        return timelines.size();
+    }
+
+    /** @return The estimated memory held by all cached timelines, in bytes. */
+    public long getEstimatedBytes(){
+        return bytes.get();
+    }
+
+    /** @return The number of reads answered from the cache. */
+    public long getHitCount(){
+        return hits.sum();
+    }
+
+    /** @return The number of reads that loaded the timeline from the database. */
+    public long getMissCount(){
+        return misses.sum();
+    }
+
+    /** @return The number of timelines dropped to stay within the memory budget. */
+    public long getEvictionCount(){
+        return evictions.sum();
+    }
+
+    /**
+     * @return A one-line summary of the cache counters, suitable for logging.
+     */
+    public String getStats(){
+        return "accounts=" + getAccountCount() + ", bytes=" + getEstimatedBytes() + "/" + maxBytes
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount();
+    }
+
+
+    /**
+     * One account's messages and their estimated size. The messages are never modified once built,
+     * only the time of the last read moves.
+     */
+    private static class Timeline {
+
+        private final Message[] messages;
+        private final long bytes;
+        private volatile long lastRead;
+
+        Timeline(Message[] messages, long bytes, long lastRead){
+            this.messages = messages;
+            this.bytes = bytes;
+            this.lastRead = lastRead;
+        }
+
+        List<Message> asList(){
+            return Collections.unmodifiableList(Arrays.asList(messages));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package Service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import Model.BatchItemResult;
+import Model.Message;
+import Model.MessagePage;
+import Util.JdbcExecutor;
+import Util.PageCursor;
+
+/**
+ * The MessageService operations as CompletableFutures, run on a JdbcExecutor so the calling thread never
+ * blocks on the database. Results, caching and exceptions are exactly those of MessageService, the
+ * exceptions just arrive through the future.
+ *
+ * Reads that MessageService's caches can answer complete on the calling thread, so they never queue
+ * behind database work. Writes are submitted with JdbcExecutor.supplyWrite: one that times out was
+ * never started, and one that has started is always waited for, so a TimeoutException means the
+ * write was not applied.
+ */
+public class AsyncMessageService {
+
+    private final MessageService messageService;
+    private final JdbcExecutor jdbcExecutor;
+
+    /**
+     * @param messageService The service every call is delegated to.
+     * @param jdbcExecutor The executor the calls run on.
+     */
+    public AsyncMessageService(MessageService messageService, JdbcExecutor jdbcExecutor){
+        this.messageService = messageService;
+        this.jdbcExecutor = jdbcExecutor;
+    }
+
+    /** @see MessageService#createMessageAsync(Message, JdbcExecutor) */
+    public CompletableFuture<Message> createMessage(Message message){
+        return messageService.createMessageAsync(message, jdbcExecutor);
+    }
+
+    /** @see MessageService#createMessages(List) */
+    public CompletableFuture<List<BatchItemResult>> createMessages(List<Message> messages){
+        return jdbcExecutor.supplyWrite(() -> messageService.createMessages(messages));
+    }
+
+    /** @see MessageService#getAllMessages() */
+    public CompletableFuture<List<Message>> getAllMessages(){
+        return jdbcExecutor.supply(messageService::getAllMessages);
+    }
+
+    /** @see MessageService#getMessagesPage(int, PageCursor) */
+    public CompletableFuture<MessagePage> getMessagesPage(int limit, PageCursor cursor){
+        return jdbcExecutor.supply(() -> messageService.getMessagesPage(limit, cursor));
+    }
+
+    /** @see MessageService#searchMessages(String, int, PageCursor) */
+    public CompletableFuture<MessagePage> searchMessages(String query, int limit, PageCursor cursor){
+        return jdbcExecutor.supply(() -> messageService.searchMessages(query, limit, cursor));
+    }
+
+    /** @see MessageService#getMessageById(int) */
+    public CompletableFuture<Message> getMessageById(int messageId){
+        Message cached = messageService.getCachedMessageById(messageId);
+        if(cached != null){
+            return CompletableFuture.completedFuture(cached);
+        }
+        return jdbcExecutor.supply(() -> messageService.getMessageById(messageId));
+    }
+
+    /** @see MessageService#deleteMessageByID(int) */
+    public CompletableFuture<Message> deleteMessageByID(int messageId){
+        return jdbcExecutor.supplyWrite(() -> messageService.deleteMessageByID(messageId));
+    }
+
+    /** @see MessageService#updateMessageTextById(int, String) */
+    public CompletableFuture<Message> updateMessageTextById(int messageId, String newMessageText){
+        return jdbcExecutor.supplyWrite(() -> messageService.updateMessageTextById(messageId, newMessageText));
+    }
+
+    /** @see MessageService#getMessagesByUserId(int) */
+    public CompletableFuture<List<Message>> getMessagesByUserId(int accountId){
+        List<Message> cached = messageService.getCachedMessagesByUserId(accountId);
+        if(cached != null){
+            return CompletableFuture.completedFuture(cached);
+        }
+        return jdbcExecutor.supply(() -> messageService.getMessagesByUserId(accountId));
+    }
+}
@@ -0,0 +1,34 @@
+package Service;
+
+import java.util.concurrent.CompletableFuture;
+
+import Model.Account;
+import Util.JdbcExecutor;
+
+/**
+ * The UserService operations as CompletableFutures, run on a JdbcExecutor. See AsyncMessageService.
+ */
+public class AsyncUserService {
+
+    private final UserService userService;
+    private final JdbcExecutor jdbcExecutor;
+
+    /**
+     * @param userService The service every call is delegated to.
+     * @param jdbcExecutor The executor the calls run on.
+     */
+    public AsyncUserService(UserService userService, JdbcExecutor jdbcExecutor){
+        this.userService = userService;
+        this.jdbcExecutor = jdbcExecutor;
+    }
+
+    /** @see UserService#registerUser(String, String) */
+    public CompletableFuture<Account> registerUser(String userName, String password){
+        return jdbcExecutor.supplyWrite(() -> userService.registerUser(userName, password));
+    }
+
+    /** @see UserService#login(String, String) */
+    public CompletableFuture<Account> login(String userName, String password){
+        return jdbcExecutor.supply(() -> userService.login(userName, password));
+    }
+}
@@ -0,0 +1,159 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Message;
+import Model.MessagePage;
+import Util.FrequencyCache;
+
+/**
+ * Caches each message's UTF-8 JSON, so list responses are built by copying byte arrays instead of
+ * running every Message through Jackson again.
+ *
+ * An entry remembers the fields it was serialized from and is only reused for a Message with the
+ * same fields. A reader holding a Message loaded before an edit therefore gets its own bytes, it can
+ * never be handed the edited text or leave its old text behind for others. MessageService still
+ * invalidates edited and deleted ids so their bytes don't wait for the TTL to be dropped.
+ */
+public class MessageJsonCache {
+
+    private static final byte[] MESSAGES_FIELD = utf8("{\"messages\":");
+    private static final byte[] NEXT_CURSOR_FIELD = utf8(",\"next_cursor\":");
+
+    private final ObjectMapper objectMapper;
+    private final FrequencyCache<Integer, Entry> entries;
+
+    /**
+     * @param objectMapper Serializes messages on a miss, and should be the mapper ctx.json() uses so
+     *                     cached and uncached responses look the same.
+     * @param maximumSize The most messages whose JSON is kept.
+     * @param ttl How long JSON is kept after it is serialized.
+     * @param unit The unit of ttl.
+     */
+    public MessageJsonCache(ObjectMapper objectMapper, int maximumSize, long ttl, TimeUnit unit){
+        this.objectMapper = objectMapper;
+        this.entries = new FrequencyCache<>(maximumSize, ttl, unit);
+    }
+
+
+    /**
+     * @param message The message to serialize.
+     * @return The message as a JSON object. The array is shared and must not be modified.
+     */
+    public byte[] toJson(Message message){
+        Entry entry = entries.get(message.getMessage_id(), id -> serialize(message));
+        if(!entry.isFor(message)){
+            entry = serialize(message);
+            entries.put(message.getMessage_id(), entry);
+        }
+        return entry.json;
+    }
+
+    /**
+     * @param messages The messages to serialize, in response order.
+     * @return The messages as a JSON array, in a new array sized exactly to it.
+     */
+    public byte[] toJsonArray(List<Message> messages){
+        byte[][] parts = new byte[messages.size()][];
+        int length = 2 + Math.max(0, parts.length - 1);
+        for(int i = 0; i < parts.length; i++){
+            parts[i] = toJson(messages.get(i));
+            length += parts[i].length;
+        }
+
+        byte[] json = new byte[length];
+        json[0] = '[';
+        int position = 1;
+        for(int i = 0; i < parts.length; i++){
+            if(i > 0){
+                json[position++] = ',';
+            }
+            System.arraycopy(parts[i], 0, json, position, parts[i].length);
+            position += parts[i].length;
+        }
+        json[position] = ']';
+        return json;
+    }
+
+    /**
+     * @param page A page from MessageService.getMessagesPage.
+     * @return The page as the same JSON object ctx.json() would write for it.
+     */
+    public byte[] toJson(MessagePage page){
+        byte[] messages = toJsonArray(page.getMessages());
+        byte[] nextCursor = writeValueAsBytes(page.getNext_cursor());
+
+        byte[] json = new byte[MESSAGES_FIELD.length + messages.length + NEXT_CURSOR_FIELD.length + nextCursor.length + 1];
+        int position = 0;
+        for(byte[] part : new byte[][]{MESSAGES_FIELD, messages, NEXT_CURSOR_FIELD, nextCursor}){
+            System.arraycopy(part, 0, json, position, part.length);
+            position += part.length;
+        }
+        json[position] = '}';
+        return json;
+    }
+
+    /**
+     * Drops the JSON of a message that was edited or deleted.
+     *
+     * @param messageId The message's id.
+     */
+    public void invalidate(int messageId){
+        entries.invalidate(messageId);
+    }
+
+    /**
+     * @return The cache holding the JSON, for its hit ratio and size.
+     */
+    public FrequencyCache<Integer, ?> getEntries(){
+        return entries;
+    }
+
+
+    private Entry serialize(Message message){
+        return new Entry(message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch(),
+                writeValueAsBytes(message));
+    }
+
+    private byte[] writeValueAsBytes(Object value){
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize " + value, e);
+        }
+    }
+
+    private static byte[] utf8(String text){
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * A message's JSON and the fields it was written from. The message_id is the cache key.
+     */
+    private static final class Entry {
+        final int postedBy;
+        final String messageText;
+        final long timePostedEpoch;
+        final byte[] json;
+
+        Entry(int postedBy, String messageText, long timePostedEpoch, byte[] json){
+            this.postedBy = postedBy;
+            this.messageText = messageText;
+            this.timePostedEpoch = timePostedEpoch;
+            this.json = json;
+        }
+
+        boolean isFor(Message message){
+            return postedBy == message.getPosted_by()
+                    && timePostedEpoch == message.getTime_posted_epoch()
+                    && (messageText == message.getMessage_text()
+                        || (messageText != null && messageText.equals(message.getMessage_text())));
+        }
+    }
+}
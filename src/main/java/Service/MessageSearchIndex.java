@@ -0,0 +1,380 @@
+package Service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory inverted index over message_text, for GET /messages/search.
+ *
+ * Text is split into lower-cased runs of letters and digits, and each term maps to the message_ids
+ * that contain it, kept ascending in a primitive int array. A query returns the ids that contain every
+ * term, in message_id order, starting after or before a keyset cursor, so a page costs about the size
+ * of the rarest term's list rather than a scan of the table.
+ *
+ * The index is kept current by MessageService: new messages are appended, edited ones have their old
+ * terms removed and new ones added, deleted ones are removed. Removing an id only marks it in place,
+ * as its negative, and a list is compacted once a quarter of it is marked, so removing an id from a
+ * long list costs a binary search rather than an array copy.
+ *
+ * Reads share a lock and writes take it exclusively.
+ */
+public class MessageSearchIndex {
+
+    /** The most terms a query may have. */
+    public static final int MAX_QUERY_TERMS = 16;
+
+    private final HashMap<String, Postings> terms = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long postingCount;
+
+
+    /**
+     * Splits text into the terms the index uses: lower-cased runs of letters and digits, each once.
+     *
+     * @param text The text to split, may be null.
+     * @return The distinct terms, in the order they first appear.
+     */
+    public static Set<String> terms(String text){
+        Set<String> found = new LinkedHashSet<>();
+        if(text == null){
+            return found;
+        }
+        int start = -1;
+        for(int i = 0; i <= text.length(); i++){
+            boolean inTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if(inTerm && start < 0){
+                start = i;
+            } else if(!inTerm && start >= 0){
+                found.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return found;
+    }
+
+
+    /**
+     * Indexes a message. Adding an id that is already indexed for a term has no effect.
+     *
+     * @param messageId The message's id.
+     * @param text Its message_text.
+     */
+    public void add(int messageId, String text){
+        Set<String> messageTerms = terms(text);
+        lock.writeLock().lock();
+        try {
+            for(String term : messageTerms){
+                if(terms.computeIfAbsent(term, t -> new Postings()).add(messageId)){
+                    postingCount++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a message's terms from the index.
+     *
+     * @param messageId The message's id.
+     * @param text The message_text it was indexed with.
+     */
+    public void remove(int messageId, String text){
+        Set<String> messageTerms = terms(text);
+        lock.writeLock().lock();
+        try {
+            for(String term : messageTerms){
+                Postings postings = terms.get(term);
+                if(postings != null && postings.remove(messageId)){
+                    postingCount--;
+                    if(postings.isEmpty()){
+                        terms.remove(term);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Re-indexes a message whose text changed, touching only the terms that were added or dropped.
+     *
+     * @param messageId The message's id.
+     * @param oldText The message_text it was indexed with.
+     * @param newText Its new message_text.
+     */
+    public void update(int messageId, String oldText, String newText){
+        Set<String> removed = terms(oldText);
+        Set<String> added = terms(newText);
+        Set<String> kept = new LinkedHashSet<>(removed);
+        kept.retainAll(added);
+        removed.removeAll(kept);
+        added.removeAll(kept);
+
+        lock.writeLock().lock();
+        try {
+            for(String term : removed){
+                Postings postings = terms.get(term);
+                if(postings != null && postings.remove(messageId)){
+                    postingCount--;
+                    if(postings.isEmpty()){
+                        terms.remove(term);
+                    }
+                }
+            }
+            for(String term : added){
+                if(terms.computeIfAbsent(term, t -> new Postings()).add(messageId)){
+                    postingCount++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Finds the messages that contain every query term.
+     *
+     * @param queryTerms The terms, as returned by terms(). Must not be empty.
+     * @param forward True for ids above fromId, ascending; false for ids below fromId, descending.
+     * @param fromId Exclusive bound: 0 with forward for the first page.
+     * @param limit The most ids to return.
+     * @return Up to limit matching message_ids, nearest to fromId first.
+     */
+    public int[] search(Set<String> queryTerms, boolean forward, int fromId, int limit){
+        if(forward ? fromId == Integer.MAX_VALUE : fromId <= 1){
+            return new int[0];
+        }
+        lock.readLock().lock();
+        try {
+            Postings[] lists = new Postings[queryTerms.size()];
+            int n = 0;
+            for(String term : queryTerms){
+                Postings postings = terms.get(term);
+                if(postings == null){
+                    return new int[0];
+                }
+                lists[n++] = postings;
+            }
+            // Walk the rarest list and probe the others, which only ever move in one direction
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+            return forward ? searchForward(lists, fromId, limit) : searchBackward(lists, fromId, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int[] searchForward(Postings[] lists, int afterId, int limit){
+        int[] found = new int[Math.min(limit, lists[0].size)];
+        int count = 0;
+        int[] positions = new int[lists.length];
+        for(int i = 0; i < lists.length; i++){
+            positions[i] = lists[i].ceiling(afterId + 1, 0);
+        }
+
+        Postings rarest = lists[0];
+        for(int p = positions[0]; p < rarest.size && count < found.length; p++){
+            int candidate = rarest.ids[p];
+            if(candidate < 0){
+                continue;
+            }
+            boolean inAll = true;
+            for(int i = 1; i < lists.length && inAll; i++){
+                positions[i] = lists[i].ceiling(candidate, positions[i]);
+                if(positions[i] >= lists[i].size){
+                    return Arrays.copyOf(found, count);
+                }
+                inAll = lists[i].ids[positions[i]] == candidate;
+            }
+            if(inAll){
+                found[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private static int[] searchBackward(Postings[] lists, int beforeId, int limit){
+        int[] found = new int[Math.min(limit, lists[0].size)];
+        int count = 0;
+        int[] positions = new int[lists.length];
+        for(int i = 0; i < lists.length; i++){
+            positions[i] = lists[i].floor(beforeId - 1, lists[i].size - 1);
+        }
+
+        Postings rarest = lists[0];
+        for(int p = positions[0]; p >= 0 && count < found.length; p--){
+            int candidate = rarest.ids[p];
+            if(candidate < 0){
+                continue;
+            }
+            boolean inAll = true;
+            for(int i = 1; i < lists.length && inAll; i++){
+                positions[i] = lists[i].floor(candidate, positions[i]);
+                if(positions[i] < 0){
+                    return Arrays.copyOf(found, count);
+                }
+                inAll = lists[i].ids[positions[i]] == candidate;
+            }
+            if(inAll){
+                found[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+
+    /** @return The number of distinct terms indexed. */
+    public int getTermCount(){
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return The number of (term, message) pairs indexed. */
+    public long getPostingCount(){
+        lock.readLock().lock();
+        try {
+            return postingCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * The ascending message_ids of one term. Removed ids stay in place as their negative until the
+     * list is compacted, so positions are found by absolute value.
+     */
+    private static class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+        private int removed;
+
+        boolean isEmpty(){
+            return size == removed;
+        }
+
+        /**
+         * @return True if the id was not already present.
+         */
+        boolean add(int id){
+            if(size == 0 || id > Math.abs(ids[size - 1])){
+                // Ids are handed out in increasing order, so this is the usual case
+                if(size == ids.length){
+                    ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+                }
+                ids[size++] = id;
+                return true;
+            }
+
+            int position = ceiling(id, 0);
+            if(position < size && Math.abs(ids[position]) == id){
+                if(ids[position] > 0){
+                    return false;
+                }
+                ids[position] = id;
+                removed--;
+                return true;
+            }
+
+            if(size == ids.length){
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+            return true;
+        }
+
+        /**
+         * @return True if the id was present.
+         */
+        boolean remove(int id){
+            int position = ceiling(id, 0);
+            if(position >= size || ids[position] != id){
+                return false;
+            }
+            ids[position] = -id;
+            removed++;
+            if(removed > 16 && removed * 4 > size){
+                compact();
+            }
+            return true;
+        }
+
+        private void compact(){
+            int kept = 0;
+            for(int i = 0; i < size; i++){
+                if(ids[i] > 0){
+                    ids[kept++] = ids[i];
+                }
+            }
+            size = kept;
+            removed = 0;
+            if(ids.length > 2 * size + 4){
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+        }
+
+        /**
+         * @return The first position at or after from whose id is at least id, or size if there is none.
+         */
+        int ceiling(int id, int from){
+            int low = from;
+            int high = size - 1;
+            // Gallop first, probes from a nearby position usually land within a few slots
+            int step = 1;
+            while(low + step <= high && Math.abs(ids[low + step]) < id){
+                low += step;
+                step <<= 1;
+            }
+            if(low + step <= high){
+                high = low + step;
+            }
+            while(low <= high){
+                int mid = (low + high) >>> 1;
+                if(Math.abs(ids[mid]) < id){
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return The last position at or before from whose id is at most id, or -1 if there is none.
+         */
+        int floor(int id, int from){
+            int low = 0;
+            int high = from;
+            int step = 1;
+            while(high - step >= low && Math.abs(ids[high - step]) > id){
+                high -= step;
+                step <<= 1;
+            }
+            if(high - step >= low){
+                low = high - step;
+            }
+            while(low <= high){
+                int mid = (low + high) >>> 1;
+                if(Math.abs(ids[mid]) > id){
+                    high = mid - 1;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return high;
+        }
+    }
+}
@@ -1,26 +1,249 @@
 package Service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import DAO.GroupCommitMessageWriter;
 import DAO.MessageDAO;
+import DAO.MessageRowHandler;
+import Model.BatchItemResult;
 import Model.Message;
+import Model.MessagePage;
+import Util.FrequencyCache;
+import Util.JdbcExecutor;
+import Util.PageCursor;
 
 public class MessageService {
 
+    /** The largest page a client may ask for from the paginated GET /messages. */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /** The most messages a single POST /messages/batch may create. */
+    public static final int MAX_BATCH_SIZE = 1000;
+
     private final MessageDAO messageDAO;
+    private final GroupCommitMessageWriter groupCommitWriter;
+
+    /**
+     * Read-through cache for getMessageById, including ids that don't exist.
+     * Every write below invalidates the affected id after it commits.
+     */
+    private final FrequencyCache<Integer, Message> messageCache = new FrequencyCache<>(
+            Integer.getInteger("messages.cache.maxSize", 10_000),
+            Long.getLong("messages.cache.ttlSeconds", 60), TimeUnit.SECONDS);
+
+    /** Each account's message list for getMessagesByUserId, patched by every write below. */
+    private final AccountTimelineCache timelineCache = new AccountTimelineCache(
+            Long.getLong("messages.timelineCache.maxBytes", 64L * 1024 * 1024));
+
+    /** Each message's JSON for the list endpoints, dropped by the update and delete below. */
+    private final MessageJsonCache jsonCache;
+
+    /**
+     * Striped by message_id. Held across an update or delete and the matching timeline patch,
+     * so two writes to the same message patch the timeline in the order they committed.
+     */
+    private final Object[] messageWriteLocks = new Object[64];
+
+    /**
+     * Per lock stripe, bumped under the lock by every update and delete. A create notes these before
+     * its insert, so messageCreated can tell whether its new id may have been written in between.
+     */
+    private final AtomicLongArray messageWrites = new AtomicLongArray(messageWriteLocks.length);
+
+    /** Every message's terms, for searchMessages. Built by buildSearchIndex and patched by every write below. */
+    private final MessageSearchIndex searchIndex = new MessageSearchIndex();
+
+    /** Bumped after every write below, once the caches are patched. */
+    private final MessageVersions versions = new MessageVersions();
 
     public MessageService(MessageDAO messageDAO){
+        this(messageDAO, null);
+    }
+
+    /**
+     * @param messageDAO The DAO used for every read and write.
+     * @param groupCommitWriter If not null, createMessage goes through this writer so concurrent
+     *                          creates are committed together in batches.
+     */
+    public MessageService(MessageDAO messageDAO, GroupCommitMessageWriter groupCommitWriter){
+        this(messageDAO, groupCommitWriter, new ObjectMapper());
+    }
+
+    /**
+     * @param messageDAO The DAO used for every read and write.
+     * @param groupCommitWriter If not null, createMessage goes through this writer so concurrent
+     *                          creates are committed together in batches.
+     * @param objectMapper Serializes messages for the JSON cache. Pass the mapper the web layer
+     *                     answers with, so cached and uncached responses look the same.
+     */
+    public MessageService(MessageDAO messageDAO, GroupCommitMessageWriter groupCommitWriter, ObjectMapper objectMapper){
         this.messageDAO = messageDAO;
+        this.groupCommitWriter = groupCommitWriter;
+        this.jsonCache = new MessageJsonCache(objectMapper,
+                Integer.getInteger("messages.jsonCache.maxSize", 100_000),
+                Long.getLong("messages.jsonCache.ttlSeconds", 300), TimeUnit.SECONDS);
+        for(int i = 0; i < messageWriteLocks.length; i++){
+            messageWriteLocks[i] = new Object();
+        }
     }
 
     /**
      * Validates and creates a new message. 
+     *
+     * Whether posted_by refers to a real user is not checked up front. The foreign key on
+     * message.posted_by rejects the INSERT instead, so creating a message is a single round trip.
      * @param message The Message object containing the message text and posted_by user ID
      * @return The created Message object with its auto-generated message_id. 
-     * @throws IllegalArgumentException If validation fails. 
+     * @throws IllegalArgumentException If validation fails or the user does not exist. 
      */
 
      public Message createMessage(Message message){
+        validateMessage(message);
+
+        long[] writesBefore = messageWriteCounts();
+        Message created = groupCommitWriter != null
+                ? groupCommitWriter.write(message)
+                : messageDAO.createMessage(message);
+
+        messageCreated(created, writesBefore);
+        return created;
+     }
+
+     /**
+      * Like createMessage, without blocking the caller.
+      *
+      * With group commit the future completes when the batch commits, no JDBC thread waits for it.
+      * Otherwise createMessage runs on jdbcExecutor.
+      *
+      * @param message The Message object containing the message text and posted_by user ID
+      * @param jdbcExecutor Runs the insert when group commit is off.
+      * @return A future for the created message, failed like createMessage would throw.
+      */
+     public CompletableFuture<Message> createMessageAsync(Message message, JdbcExecutor jdbcExecutor){
+        if(groupCommitWriter == null){
+            return jdbcExecutor.supplyWrite(() -> createMessage(message));
+        }
+
+        try {
+            validateMessage(message);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long[] writesBefore = messageWriteCounts();
+        return groupCommitWriter.submit(message).thenApply(created -> {
+            messageCreated(created, writesBefore);
+            return created;
+        });
+     }
+
+     /**
+      * Brings the caches up to date with a newly created message, under its write lock like the
+      * update and delete below.
+      *
+      * The new id is visible to readers as soon as the insert commits, so an update or delete of it
+      * can get in first and find nothing to patch. If one may have, the row is read back and the
+      * caches are patched with what the table holds now rather than with the message as inserted.
+      *
+      * @param created The message as inserted.
+      * @param writesBefore messageWriteCounts() from before the insert.
+      */
+     private void messageCreated(Message created, long[] writesBefore){
+        int messageId = created.getMessage_id();
+        synchronized (writeLockFor(messageId)) {
+            // The id may have been looked up, and cached as missing, before it existed
+            messageCache.invalidate(messageId);
+            Message current = created;
+            int stripe = stripeFor(messageId);
+            if(messageWrites.get(stripe) != writesBefore[stripe]){
+                current = messageDAO.getMessageById(messageId);
+                if(current == null){
+                    // Already deleted, and the delete bumped the versions
+                    return;
+                }
+            }
+            timelineCache.added(current);
+            searchIndex.add(messageId, current.getMessage_text());
+            versions.bump(current.getPosted_by());
+        }
+     }
+
+     /**
+      * Validates and creates several messages at once.
+      *
+      * Each item is checked with the same rules as createMessage, the posted_by users of all items
+      * are looked up with one query, and the valid items are inserted with one JDBC batch in one
+      * transaction. Invalid items are reported and skipped, they don't fail the whole request.
+      *
+      * @param messages The messages to create.
+      * @return One result per item, in request order, holding either the created message or why it was rejected.
+      * @throws IllegalArgumentException If there are more than MAX_BATCH_SIZE items.
+      */
+     public List<BatchItemResult> createMessages(List<Message> messages){
+
+        if(messages.size() > MAX_BATCH_SIZE){
+            throw new IllegalArgumentException("A batch cannot contain more than " + MAX_BATCH_SIZE + " messages");
+        }
+
+        BatchItemResult[] results = new BatchItemResult[messages.size()];
+        List<Integer> validIndexes = new ArrayList<>();
+        Set<Integer> postedBy = new HashSet<>();
+
+        for(int i = 0; i < messages.size(); i++){
+            Message message = messages.get(i);
+            try {
+                validateMessage(message);
+                validIndexes.add(i);
+                postedBy.add(message.getPosted_by());
+            } catch (IllegalArgumentException e) {
+                results[i] = BatchItemResult.rejected(i, e.getMessage());
+            }
+        }
+
+        Set<Integer> existingUsers = messageDAO.findExistingUsers(postedBy);
+        List<Message> toInsert = new ArrayList<>();
+        List<Integer> insertIndexes = new ArrayList<>();
+
+        for(int i : validIndexes){
+            Message message = messages.get(i);
+            if(existingUsers.contains(message.getPosted_by())){
+                toInsert.add(message);
+                insertIndexes.add(i);
+            } else {
+                results[i] = BatchItemResult.rejected(i, "The user does not exist");
+            }
+        }
+
+        long[] writesBefore = messageWriteCounts();
+        List<Message> created = messageDAO.createMessages(toInsert);
+        for(int j = 0; j < created.size(); j++){
+            int i = insertIndexes.get(j);
+            messageCreated(created.get(j), writesBefore);
+            results[i] = BatchItemResult.created(i, created.get(j));
+        }
+
+        return Arrays.asList(results);
+     }
+
+     /**
+      * Checks the rules every new message must meet, apart from posted_by existing.
+      * @throws IllegalArgumentException If a rule is broken.
+      */
+     private void validateMessage(Message message){
+        if(message == null){
+            throw new IllegalArgumentException("Message cannot be empty");
+        }
+
         // Validate message_text
         if(message.getMessage_text() == null || message.getMessage_text().trim().isEmpty()){
             throw new IllegalArgumentException("Message text cannot be blank");
@@ -30,16 +253,9 @@ public class MessageService {
             throw new IllegalArgumentException("Message text cannot exceed 255 characters.");
         }
 
-        int postedBy = message.getPosted_by();
-
-        if(!messageDAO.doesUserExist(postedBy)){
-            throw new IllegalArgumentException("The user does not exist");
-        }
         if(message.getTime_posted_epoch() <= 0){
             throw new IllegalArgumentException("Invalid timestamp");
         }
-
-        return messageDAO.createMessage(message);
      }
 
      /**
@@ -52,14 +268,137 @@ public class MessageService {
         return messageDAO.getAllMessages();
      }
 
+     /**
+      * Retrieves one page of messages using keyset pagination.
+      *
+      * One extra row is fetched to find out whether another page follows, so no COUNT or OFFSET is needed.
+      *
+      * @param limit The maximum number of messages on the page.
+      * @param cursor Where the page starts, or null for the first page.
+      * @return The page, ordered by message_id, with a next_cursor if more messages follow in the same direction.
+      * @throws IllegalArgumentException If limit is out of range.
+      */
+     public MessagePage getMessagesPage(int limit, PageCursor cursor){
+
+        if(limit < 1 || limit > MAX_PAGE_SIZE){
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        if(cursor == null || cursor.isForward()){
+            int afterId = cursor == null ? 0 : cursor.getMessageId();
+            List<Message> messages = messageDAO.getMessagesAfterId(afterId, limit + 1);
+
+            String nextCursor = null;
+            if(messages.size() > limit){
+                messages.remove(limit);
+                nextCursor = PageCursor.after(messages.get(limit - 1).getMessage_id()).encode();
+            }
+            return new MessagePage(messages, nextCursor);
+        }
+
+        // Paging backwards: the DAO returns newest first, flip it back to ascending order
+        List<Message> messages = messageDAO.getMessagesBeforeId(cursor.getMessageId(), limit + 1);
+
+        String nextCursor = null;
+        if(messages.size() > limit){
+            messages.remove(limit);
+            nextCursor = PageCursor.before(messages.get(limit - 1).getMessage_id()).encode();
+        }
+        Collections.reverse(messages);
+        return new MessagePage(messages, nextCursor);
+     }
+
+     /**
+      * Indexes every message in the database for searchMessages. Call once at startup, the writes
+      * above keep the index current from then on.
+      *
+      * @throws RuntimeException If the messages cannot be read.
+      */
+     public void buildSearchIndex(){
+        try {
+            messageDAO.streamAllMessages((messageId, postedBy, messageText, timePostedEpoch) ->
+                    searchIndex.add(messageId, messageText));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not build the search index: " + e.getMessage(), e);
+        }
+     }
+
+     /**
+      * Finds the messages whose text contains every word of the query, one page at a time.
+      *
+      * Words are matched whole and case-insensitively. The matching ids come from searchIndex and only
+      * the page's rows are read from the database, in one query. Pages are keyset paginated by
+      * message_id, with the same cursors as getMessagesPage.
+      *
+      * @param query The words to search for.
+      * @param limit The maximum number of messages on the page.
+      * @param cursor Where the page starts, or null for the first page.
+      * @return The page, ordered by message_id, with a next_cursor if more matches follow in the same direction.
+      * @throws IllegalArgumentException If the query has no words or too many, or limit is out of range.
+      */
+     public MessagePage searchMessages(String query, int limit, PageCursor cursor){
+
+        if(limit < 1 || limit > MAX_PAGE_SIZE){
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        Set<String> queryTerms = MessageSearchIndex.terms(query);
+        if(queryTerms.isEmpty()){
+            throw new IllegalArgumentException("Search query must contain a word");
+        }
+        if(queryTerms.size() > MessageSearchIndex.MAX_QUERY_TERMS){
+            throw new IllegalArgumentException("Search query cannot have more than "
+                    + MessageSearchIndex.MAX_QUERY_TERMS + " words");
+        }
+
+        boolean forward = cursor == null || cursor.isForward();
+        int fromId = cursor == null ? 0 : cursor.getMessageId();
+
+        // One extra id tells whether another page follows
+        int[] ids = searchIndex.search(queryTerms, forward, fromId, limit + 1);
+        String nextCursor = null;
+        if(ids.length > limit){
+            ids = Arrays.copyOf(ids, limit);
+            int last = ids[limit - 1];
+            nextCursor = (forward ? PageCursor.after(last) : PageCursor.before(last)).encode();
+        }
+
+        List<Message> messages = messageDAO.getMessagesByIds(ids);
+        // A message edited between the index lookup and the read may no longer match
+        messages.removeIf(message -> !MessageSearchIndex.terms(message.getMessage_text()).containsAll(queryTerms));
+        return new MessagePage(messages, nextCursor);
+     }
+
+     /**
+      * Streams every message to the handler one row at a time, for callers that need the whole table.
+      *
+      * @param handler Receives each message row.
+      * @throws IOException If the handler fails to write a row.
+      */
+     public void streamAllMessages(MessageRowHandler handler) throws IOException {
+        messageDAO.streamAllMessages(handler);
+     }
+
      /**
       * Retrives a message by its ID.
       *
+      * Lookups are answered from messageCache when possible, misses are loaded from the database.
+      *
       * @param messageId The ID of the message to retrive
       * @return A Message object representing the message, or null if no such message exists.
       */
      public Message getMessageById(int messageId){
-        return messageDAO.getMessageById(messageId);
+        return messageCache.get(messageId, messageDAO::getMessageById);
+     }
+
+     /**
+      * Answers getMessageById from messageCache only, so it never blocks on the database.
+      *
+      * @param messageId The ID of the message to retrive
+      * @return The cached message, or null if the caller has to ask getMessageById.
+      */
+     public Message getCachedMessageById(int messageId){
+        return messageCache.getIfPresent(messageId);
      }
 
 
@@ -70,7 +409,18 @@ public class MessageService {
       * @return The deleted Message object if it existed, or null if no such message existed.
       */
      public Message deleteMessageByID(int messageId){
-        return messageDAO.deleteMessageById(messageId);
+        synchronized (writeLockFor(messageId)) {
+            Message deleted = messageDAO.deleteMessageById(messageId);
+            messageWrites.incrementAndGet(stripeFor(messageId));
+            messageCache.invalidate(messageId);
+            jsonCache.invalidate(messageId);
+            if(deleted != null){
+                timelineCache.removed(deleted);
+                searchIndex.remove(messageId, deleted.getMessage_text());
+                versions.bump(deleted.getPosted_by());
+            }
+            return deleted;
+        }
      }
 
 
@@ -93,7 +443,21 @@ public class MessageService {
             throw new IllegalArgumentException("Message text cannot exceed 255 characters.");
         }
 
-        Message updatedMessage = messageDAO.updMessageTextByID(messageId, newMessageText);
+        Message updatedMessage = null;
+        synchronized (writeLockFor(messageId)) {
+            // The previous text tells the search index which terms to drop
+            Message previous = messageDAO.replaceMessageText(messageId, newMessageText);
+            messageWrites.incrementAndGet(stripeFor(messageId));
+            messageCache.invalidate(messageId);
+            jsonCache.invalidate(messageId);
+            if(previous != null){
+                updatedMessage = new Message(messageId, previous.getPosted_by(), newMessageText,
+                        previous.getTime_posted_epoch());
+                timelineCache.updated(updatedMessage);
+                searchIndex.update(messageId, previous.getMessage_text(), newMessageText);
+                versions.bump(updatedMessage.getPosted_by());
+            }
+        }
 
         if(updatedMessage == null){
             throw new IllegalArgumentException("Message with ID " + " does not excist");
@@ -105,11 +469,86 @@ public class MessageService {
      /**
       * Retrieves all messages written by a specific user.
       *
+      * Served from timelineCache, the database is only read the first time an account is asked for
+      * or after its timeline was evicted.
+      *
       * @param accountId The ID of the user whose messages need to be retrieved.
-      * @return A list of Message objects written by the user, or an empty list if no messages exist.
+      * @return An unmodifiable list of Message objects written by the user, or an empty list if no messages exist.
       */
      public List<Message> getMessagesByUserId(int accountId){
-        return messageDAO.getMessagesByUserId(accountId);
+        return timelineCache.get(accountId, messageDAO::getMessagesByUserId);
+     }
+
+     /**
+      * Answers getMessagesByUserId from timelineCache only, so it never blocks on the database.
+      *
+      * @param accountId The ID of the user whose messages need to be retrieved.
+      * @return The cached timeline, or null if the caller has to ask getMessagesByUserId.
+      */
+     public List<Message> getCachedMessagesByUserId(int accountId){
+        return timelineCache.getIfPresent(accountId);
+     }
+
+     /**
+      * Streams every message written by a specific user to the handler one row at a time.
+      *
+      * @param accountId The ID of the user whose messages are streamed.
+      * @param handler Receives each message row.
+      * @throws IOException If the handler fails to write a row.
+      */
+     public void streamMessagesByUserId(int accountId, MessageRowHandler handler) throws IOException {
+        messageDAO.streamMessagesByUserId(accountId, handler);
+     }
+
+     /**
+      * @return The cache in front of getMessageById, for its hit ratio, eviction and load latency counters.
+      */
+     public FrequencyCache<Integer, Message> getMessageCache(){
+        return messageCache;
+     }
+
+     /**
+      * @return The cache behind getMessagesByUserId, for its size and hit counters.
+      */
+     public AccountTimelineCache getTimelineCache(){
+        return timelineCache;
+     }
+
+     /**
+      * @return The serialized form of messages, for writing list responses without Jackson.
+      */
+     public MessageJsonCache getJsonCache(){
+        return jsonCache;
+     }
+
+     /**
+      * @return The inverted index behind searchMessages, for its size.
+      */
+     public MessageSearchIndex getSearchIndex(){
+        return searchIndex;
+     }
+
+     /**
+      * @return The version counters every write bumps, for ETags on the read endpoints.
+      */
+     public MessageVersions getVersions(){
+        return versions;
+     }
+
+     private Object writeLockFor(int messageId){
+        return messageWriteLocks[stripeFor(messageId)];
+     }
+
+     private int stripeFor(int messageId){
+        return Math.floorMod(messageId, messageWriteLocks.length);
+     }
+
+     private long[] messageWriteCounts(){
+        long[] counts = new long[messageWrites.length()];
+        for(int i = 0; i < counts.length; i++){
+            counts[i] = messageWrites.get(i);
+        }
+        return counts;
      }
     
 }
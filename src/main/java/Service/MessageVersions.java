@@ -0,0 +1,55 @@
+package Service;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Version counters for the message table, so clients polling a list can be told it hasn't changed
+ * without it being read again.
+ *
+ * Every create, update and delete bumps the global version, and sets its account's version to the new
+ * global value. Accounts share 4096 stripes, so a write can also move the version of an unrelated
+ * account: that only costs the other account one full response, it never hides a change.
+ *
+ * MessageService bumps a version only once the write has committed and its caches are patched. A
+ * reader that takes the version before loading therefore never labels old data with a new version.
+ */
+public class MessageVersions {
+
+    private static final int ACCOUNT_STRIPES = 4096;
+
+    /** Differs on every start, so a tag handed out before a restart never matches one after it. */
+    private final String epoch = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+
+    private final AtomicLong global = new AtomicLong();
+    private final AtomicLongArray accounts = new AtomicLongArray(ACCOUNT_STRIPES);
+
+    /**
+     * Records a committed write to one of an account's messages.
+     *
+     * @param accountId The posted_by of the message written.
+     */
+    public void bump(int accountId){
+        long version = global.incrementAndGet();
+        accounts.accumulateAndGet(Math.floorMod(accountId, ACCOUNT_STRIPES), version, Math::max);
+    }
+
+    /** @return The version of the whole message table. */
+    public long getGlobalVersion(){
+        return global.get();
+    }
+
+    /**
+     * @param accountId The account whose messages are asked for.
+     * @return The version of the account's messages, never lower than the last write to them.
+     */
+    public long getAccountVersion(int accountId){
+        return accounts.get(Math.floorMod(accountId, ACCOUNT_STRIPES));
+    }
+
+    /** @return A random string identifying this run, to prefix versions with in ETags. */
+    public String getEpoch(){
+        return epoch;
+    }
+}
@@ -1,17 +1,41 @@
 package Service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
 import DAO.UserDAO;
 import Exceptions.UnauthorizedException;
 import Model.Account;
+import Util.FrequencyCache;
 
 
 public class UserService {
 
     private final UserDAO userDAO;
 
+    /**
+     * Username to account, including usernames that don't exist. Answers "username taken?" for
+     * registration and the account lookup for login. Bounded and frequency-aware, so a stream of
+     * random usernames from credential stuffing can't push out the accounts that really log in.
+     *
+     * Unknown usernames are only remembered for accounts.directory.missingTtlSeconds (5), so an
+     * account created without going through this instance can log in soon after.
+     */
+    private final FrequencyCache<String, DirectoryEntry> accountDirectory = new FrequencyCache<>(
+            Integer.getInteger("accounts.directory.maxSize", 100_000),
+            Long.getLong("accounts.directory.ttlSeconds", 300),
+            Long.getLong("accounts.directory.missingTtlSeconds", 5), TimeUnit.SECONDS);
+
+    /** Mixed into every password digest, so digests can't be looked up in precomputed tables. */
+    private final byte[] passwordSalt = new byte[16];
+
     // Constructor to inject the UserDAO
     public UserService(UserDAO userDAO){
         this.userDAO = userDAO;
+        new SecureRandom().nextBytes(passwordSalt);
     }
 
 
@@ -33,11 +57,21 @@ public class UserService {
             throw new IllegalArgumentException("Password must be at least 4 characters long");
         }
 
-        if (userDAO.checkExistingUser(userName)){
+        if (findAccount(userName) != null){
             throw new IllegalArgumentException("Username already exists");
         }
 
-        return userDAO.registerUser(userName, password);
+        Account account;
+        try {
+            account = userDAO.registerUser(userName, password);
+        } catch (IllegalArgumentException e) {
+            // Lost a race with another registration, the cached "unknown" is stale
+            accountDirectory.invalidate(userName);
+            throw e;
+        }
+
+        accountDirectory.put(userName, toEntry(account));
+        return account;
      }
 
 
@@ -68,12 +102,73 @@ public class UserService {
         }
 
         // Validate credentials
-        Account account = userDAO.validateLogin(userName, password);
+        DirectoryEntry entry = findAccount(userName);
 
-        if(account == null){
+        if(entry == null || !MessageDigest.isEqual(entry.passwordDigest, digest(password))){
             throw new UnauthorizedException("Invalid username or password");
         }
-        
-        return account;
+
+        // The password matched, so it is the one the account has
+        return new Account(entry.accountId, entry.username, password);
+     }
+
+
+     /**
+      * Looks up an account by username through accountDirectory, the database is only queried on a miss.
+      *
+      * @param userName The username to look up.
+      * @return The account's entry, or null if no account has this username.
+      */
+     private DirectoryEntry findAccount(String userName){
+        return accountDirectory.get(userName, name -> toEntry(userDAO.getAccountByUsername(name)));
+     }
+
+     private DirectoryEntry toEntry(Account account){
+        if(account == null){
+            return null;
+        }
+        return new DirectoryEntry(account.getAccount_id(), account.getUsername(), digest(account.getPassword()));
+     }
+
+     /**
+      * @return The salted SHA-256 digest of a password, compared with MessageDigest.isEqual in time
+      *         that doesn't depend on where two digests first differ.
+      */
+     private byte[] digest(String password){
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        sha256.update(passwordSalt);
+        return sha256.digest(password == null ? new byte[0] : password.getBytes(StandardCharsets.UTF_8));
+     }
+
+
+     /**
+      * @return The username directory behind registerUser and login, for its hit and eviction counters.
+      */
+     public FrequencyCache<String, ?> getAccountDirectory(){
+        return accountDirectory;
+     }
+
+
+     /**
+      * What the directory keeps for an account: its id and username, and a digest of its password
+      * rather than the password itself.
+      */
+     private static final class DirectoryEntry {
+
+        private final int accountId;
+        private final String username;
+        private final byte[] passwordDigest;
+
+        DirectoryEntry(int accountId, String username, byte[] passwordDigest){
+            this.accountId = accountId;
+            this.username = username;
+            this.passwordDigest = passwordDigest;
+        }
      }
 }
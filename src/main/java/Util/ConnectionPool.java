@@ -0,0 +1,454 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small bounded connection pool that sits in front of a DataSource.
+ *
+ * Physical connections are opened once and reused. Callers get a proxy whose close() hands the
+ * physical connection back to the pool instead of closing it, so the DAOs can keep using
+ * try-with-resources exactly as before. Each physical connection also keeps a StatementCache, so
+ * prepareStatement() on a borrowed connection reuses statements prepared by earlier borrowers.
+ * Given QueryMetrics, the statements handed out are also timed per SQL text.
+ *
+ * Borrowing is kept cheap: a connection is only validated with isValid() if it has been idle for
+ * longer than validateAfterIdleMillis, and the borrower's stack trace is only captured when leak
+ * detection is on, which is meant for debugging.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    /** How long a connection may sit idle before a borrow validates it, unless the constructor says otherwise. */
+    public static final long DEFAULT_VALIDATE_AFTER_IDLE_MILLIS = 1000;
+
+    private final DataSource dataSource;
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int validationTimeoutSeconds;
+    private final long validateAfterIdleNanos;
+    private final int statementCacheSize;
+    private final QueryMetrics queryMetrics;
+
+    /** One permit per connection a caller may hold, bounds the pool at maxSize. */
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final Map<PooledConnection, Long> active = new ConcurrentHashMap<>();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder statementCacheEvictions = new LongAdder();
+    private final ScheduledExecutorService leakDetector;
+    private volatile boolean closed;
+
+    /**
+     * @param dataSource The DataSource physical connections are opened from.
+     * @param minSize The number of connections opened by warmUp() and kept idle.
+     * @param maxSize The maximum number of connections, idle plus borrowed.
+     * @param acquireTimeoutMillis How long getConnection() waits for a free connection before failing.
+     * @param leakThresholdMillis How long a connection may be borrowed before it is reported as leaked, 0 disables.
+     * @param validationTimeoutSeconds The timeout passed to Connection.isValid() when an idle connection is validated.
+     * @param statementCacheSize The number of prepared statements cached per connection, 0 disables caching.
+     */
+    public ConnectionPool(DataSource dataSource, int minSize, int maxSize, long acquireTimeoutMillis,
+                          long leakThresholdMillis, int validationTimeoutSeconds, int statementCacheSize){
+        this(dataSource, minSize, maxSize, acquireTimeoutMillis, leakThresholdMillis, validationTimeoutSeconds,
+                statementCacheSize, null);
+    }
+
+    /**
+     * @param queryMetrics Where prepared statement timings are recorded, or null to hand out untimed statements.
+     * @see #ConnectionPool(DataSource, int, int, long, long, int, int)
+     */
+    public ConnectionPool(DataSource dataSource, int minSize, int maxSize, long acquireTimeoutMillis,
+                          long leakThresholdMillis, int validationTimeoutSeconds, int statementCacheSize,
+                          QueryMetrics queryMetrics){
+        this(dataSource, minSize, maxSize, acquireTimeoutMillis, leakThresholdMillis, validationTimeoutSeconds,
+                DEFAULT_VALIDATE_AFTER_IDLE_MILLIS, statementCacheSize, queryMetrics);
+    }
+
+    /**
+     * @param validateAfterIdleMillis How long a connection may sit idle before it is validated on borrow,
+     *                                0 validates every borrow.
+     * @see #ConnectionPool(DataSource, int, int, long, long, int, int, QueryMetrics)
+     */
+    public ConnectionPool(DataSource dataSource, int minSize, int maxSize, long acquireTimeoutMillis,
+                          long leakThresholdMillis, int validationTimeoutSeconds, long validateAfterIdleMillis,
+                          int statementCacheSize, QueryMetrics queryMetrics){
+
+        if(maxSize < 1 || minSize < 0 || minSize > maxSize){
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+
+        this.dataSource = dataSource;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.validateAfterIdleNanos = TimeUnit.MILLISECONDS.toNanos(validateAfterIdleMillis);
+        this.statementCacheSize = statementCacheSize;
+        this.queryMetrics = queryMetrics;
+        this.permits = new Semaphore(maxSize, true);
+
+        if(leakThresholdMillis > 0){
+            leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "connection-pool-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(leakThresholdMillis / 2, 100);
+            leakDetector.scheduleAtFixedRate(this::reportLeaks, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            leakDetector = null;
+        }
+    }
+
+
+    /**
+     * Opens connections until minSize are idle so the first requests don't pay for them.
+     */
+    public void warmUp(){
+        while(totalConnections.get() < minSize){
+            try {
+                idle.offerLast(openPhysical());
+            } catch (SQLException e) {
+                logger.warn("Could not warm up connection pool: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Borrows a connection, waiting up to the acquire timeout if every connection is in use.
+     *
+     * @return A validated connection. Closing it returns it to the pool.
+     * @throws SQLException If the pool is closed, the timeout elapses, or a connection cannot be opened.
+     */
+    public Connection getConnection() throws SQLException {
+
+        if(closed){
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        if(!acquired){
+            throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMillis
+                    + "ms waiting for a connection (" + getStats() + ")");
+        }
+
+        try {
+            PhysicalConnection physical = borrowPhysical();
+            PooledConnection handler = new PooledConnection(physical);
+            handler.borrowedAt = System.currentTimeMillis();
+            if(leakDetector != null){
+                handler.borrowedBy = new Throwable("Connection borrowed here");
+            }
+            active.put(handler, handler.borrowedAt);
+            if(queryMetrics != null){
+                handler.acquireNanos = System.nanoTime() - start;
+                queryMetrics.connectionAcquired(handler.acquireNanos);
+            }
+
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, handler);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Takes an idle connection that is still usable, or opens a new one.
+     */
+    private PhysicalConnection borrowPhysical() throws SQLException {
+        PhysicalConnection physical;
+        while((physical = idle.pollFirst()) != null){
+            if(isUsable(physical)){
+                return physical;
+            }
+            discard(physical);
+        }
+        return openPhysical();
+    }
+
+    /**
+     * A connection returned recently is only checked for being closed. One idle for longer than
+     * validateAfterIdleNanos gets the round trip of isValid().
+     */
+    private boolean isUsable(PhysicalConnection physical){
+        try {
+            if(System.nanoTime() - physical.idleSince < validateAfterIdleNanos){
+                return !physical.connection.isClosed();
+            }
+            return physical.connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PhysicalConnection openPhysical() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        totalConnections.incrementAndGet();
+        return new PhysicalConnection(connection, new StatementCache(connection, statementCacheSize,
+                statementCacheHits, statementCacheMisses, statementCacheEvictions));
+    }
+
+    private void discard(PhysicalConnection physical){
+        totalConnections.decrementAndGet();
+        physical.statements.close();
+        try {
+            physical.connection.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing discarded connection: {}", e.getMessage());
+        }
+    }
+
+
+    /**
+     * Called when a borrowed proxy is closed. Rolls back anything left open and puts the physical
+     * connection back on the idle list, or closes it if it can't be reused.
+     */
+    private void release(PooledConnection handler){
+        active.remove(handler);
+        PhysicalConnection physical = handler.physical;
+        Connection connection = physical.connection;
+
+        try {
+            if(closed || connection.isClosed()){
+                discard(physical);
+                return;
+            }
+            if(!connection.getAutoCommit()){
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            // Statements the borrower left open would otherwise never be reused
+            physical.statements.release();
+            // Most recently used first, so the warm connections stay warm
+            physical.idleSince = System.nanoTime();
+            idle.offerFirst(physical);
+        } catch (SQLException e) {
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+
+    private void reportLeaks(){
+        long now = System.currentTimeMillis();
+        for(PooledConnection handler : active.keySet()){
+            long heldFor = now - handler.borrowedAt;
+            if(heldFor >= leakThresholdMillis && !handler.leakReported){
+                handler.leakReported = true;
+                logger.warn("Possible connection leak: connection held for " + heldFor + "ms", handler.borrowedBy);
+            }
+        }
+    }
+
+
+    /** @return The number of connections currently borrowed. */
+    public int getActiveCount(){
+        return active.size();
+    }
+
+    /** @return The number of open connections waiting in the pool. */
+    public int getIdleCount(){
+        return idle.size();
+    }
+
+    /** @return The number of threads blocked in getConnection(). */
+    public int getWaitingCount(){
+        return waiting.get();
+    }
+
+    /** @return The number of physical connections currently open. */
+    public int getTotalCount(){
+        return totalConnections.get();
+    }
+
+    public int getMaxSize(){
+        return maxSize;
+    }
+
+    /** @return The statement timings, or null if this pool doesn't record them. */
+    public QueryMetrics getQueryMetrics(){
+        return queryMetrics;
+    }
+
+    /** @return The number of prepareStatement() calls answered from a statement cache. */
+    public long getStatementCacheHits(){
+        return statementCacheHits.sum();
+    }
+
+    /** @return The number of prepareStatement() calls that had to prepare a new statement. */
+    public long getStatementCacheMisses(){
+        return statementCacheMisses.sum();
+    }
+
+    /** @return The number of cached statements closed to make room for newer ones. */
+    public long getStatementCacheEvictions(){
+        return statementCacheEvictions.sum();
+    }
+
+    /**
+     * @return A one-line summary of the pool counters, suitable for logging.
+     */
+    public String getStats(){
+        return "active=" + getActiveCount() + ", idle=" + getIdleCount() + ", waiting=" + getWaitingCount()
+                + ", total=" + getTotalCount() + ", max=" + maxSize
+                + ", statementCacheHits=" + getStatementCacheHits() + ", statementCacheMisses=" + getStatementCacheMisses();
+    }
+
+
+    /**
+     * Closes every idle connection. Borrowed connections are closed when they are returned.
+     */
+    @Override
+    public void close(){
+        closed = true;
+        if(leakDetector != null){
+            leakDetector.shutdownNow();
+        }
+        PhysicalConnection physical;
+        while((physical = idle.pollFirst()) != null){
+            discard(physical);
+        }
+    }
+
+
+    /**
+     * A physical connection together with the statements cached on it.
+     */
+    private static class PhysicalConnection {
+
+        private final Connection connection;
+        private final StatementCache statements;
+        /** When it was last put on the idle list, from System.nanoTime(). */
+        private volatile long idleSince;
+
+        PhysicalConnection(Connection connection, StatementCache statements){
+            this.connection = connection;
+            this.statements = statements;
+            this.idleSince = System.nanoTime();
+        }
+    }
+
+
+    /**
+     * Invocation handler behind every borrowed connection. close() returns the connection to the
+     * pool, prepareStatement() goes through the statement cache and is timed if the pool has
+     * QueryMetrics, and everything else goes straight to the physical connection.
+     */
+    private class PooledConnection implements InvocationHandler {
+
+        private final PhysicalConnection physical;
+        private volatile boolean logicallyClosed;
+        private volatile long borrowedAt;
+        private volatile Throwable borrowedBy;
+        private volatile boolean leakReported;
+        /** The time getConnection() took, charged to the first statement prepared and then cleared. */
+        private long acquireNanos;
+
+        PooledConnection(PhysicalConnection physical){
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if(!logicallyClosed){
+                        logicallyClosed = true;
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return logicallyClosed || physical.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical.connection + "]";
+                default:
+                    break;
+            }
+
+            if(logicallyClosed){
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+
+            if(method.getName().equals("prepareStatement")){
+                PreparedStatement statement = prepare(method, args);
+                if(queryMetrics == null){
+                    return statement;
+                }
+                long charged = acquireNanos;
+                acquireNanos = 0;
+                return InstrumentedStatement.wrap(statement, queryMetrics, (String) args[0], charged);
+            }
+
+            return invokePhysical(method, args);
+        }
+
+        private PreparedStatement prepare(Method method, Object[] args) throws Throwable {
+            if(statementCacheSize > 0){
+                if(args.length == 1){
+                    return physical.statements.prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+                }
+                if(args.length == 2 && args[1] instanceof Integer){
+                    return physical.statements.prepare((String) args[0], (Integer) args[1]);
+                }
+            }
+            return (PreparedStatement) invokePhysical(method, args);
+        }
+
+        private Object invokePhysical(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(physical.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
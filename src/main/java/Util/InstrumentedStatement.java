@@ -0,0 +1,222 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+/**
+ * Invocation handler behind the PreparedStatements a ConnectionPool hands out when it has
+ * QueryMetrics. It times the execute calls and the ResultSet.next() calls of each execution and
+ * reports them when the next execution starts, when a result set is closed, or when the statement is
+ * closed. Bind parameters are remembered as the setter and the length of strings and byte arrays,
+ * never as values. Each execution's time is also added to the dao phase of the thread's ServerTiming.
+ *
+ * Like the statement it wraps, it is used by one thread at a time.
+ */
+class InstrumentedStatement implements InvocationHandler {
+
+    private final PreparedStatement statement;
+    private final QueryMetrics metrics;
+    private final QueryMetrics.StatementStats stats;
+    private long acquireNanos;
+
+    private boolean executing;
+    private boolean failed;
+    private long executeNanos;
+    private long fetchNanos = -1;
+    private long rows;
+
+    private Method[] setters = new Method[8];
+    private int[] lengths = new int[8];
+    private Class<?>[] objectTypes = new Class<?>[8];
+
+    private InstrumentedStatement(PreparedStatement statement, QueryMetrics metrics, String sql, long acquireNanos){
+        this.statement = statement;
+        this.metrics = metrics;
+        this.stats = metrics.statsFor(sql);
+        this.acquireNanos = acquireNanos;
+    }
+
+    /**
+     * @param statement The statement to time.
+     * @param metrics Where executions are recorded.
+     * @param sql The SQL text it was prepared with.
+     * @param acquireNanos Connection acquire time to charge to its first execution, or 0.
+     * @return A proxy that times the statement.
+     */
+    static PreparedStatement wrap(PreparedStatement statement, QueryMetrics metrics, String sql, long acquireNanos){
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new InstrumentedStatement(statement, metrics, sql, acquireNanos));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        switch (name) {
+            case "executeQuery":
+                return wrapResults((ResultSet) execute(method, args));
+            case "execute":
+            case "executeUpdate":
+            case "executeLargeUpdate":
+            case "executeBatch":
+            case "executeLargeBatch":
+                return execute(method, args);
+            case "getResultSet":
+            case "getGeneratedKeys":
+                return wrapResults((ResultSet) invokeOn(statement, method, args));
+            case "close":
+                finishExecution();
+                return invokeOn(statement, method, args);
+            case "clearParameters":
+                Arrays.fill(setters, null);
+                return invokeOn(statement, method, args);
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "InstrumentedStatement[" + statement + "]";
+            default:
+                break;
+        }
+
+        if(args != null && args.length >= 2 && args[0] instanceof Integer && name.startsWith("set")){
+            rememberParameter(method, (Integer) args[0], args[1]);
+        }
+        return invokeOn(statement, method, args);
+    }
+
+    private Object execute(Method method, Object[] args) throws Throwable {
+        finishExecution();
+        executing = true;
+        long start = System.nanoTime();
+        try {
+            return invokeOn(statement, method, args);
+        } catch (Throwable e) {
+            failed = true;
+            throw e;
+        } finally {
+            executeNanos = System.nanoTime() - start;
+        }
+    }
+
+    private ResultSet wrapResults(ResultSet results){
+        if(results == null){
+            return null;
+        }
+        if(fetchNanos < 0){
+            fetchNanos = 0;
+        }
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, new TimedResults(results));
+    }
+
+    /**
+     * Reports the current execution, if there is one, and starts afresh.
+     */
+    private void finishExecution(){
+        if(!executing){
+            return;
+        }
+        metrics.executionFinished(stats, acquireNanos, executeNanos, fetchNanos, rows, failed, this::describeParameters);
+        ServerTiming.addToCurrent(ServerTiming.DAO, acquireNanos + executeNanos + Math.max(fetchNanos, 0));
+        executing = false;
+        failed = false;
+        acquireNanos = 0;
+        executeNanos = 0;
+        fetchNanos = -1;
+        rows = 0;
+    }
+
+
+    private void rememberParameter(Method setter, int index, Object value){
+        if(index >= setters.length){
+            int size = Math.max(index + 1, setters.length * 2);
+            setters = Arrays.copyOf(setters, size);
+            lengths = Arrays.copyOf(lengths, size);
+            objectTypes = Arrays.copyOf(objectTypes, size);
+        }
+        setters[index] = setter;
+        lengths[index] = value instanceof String ? ((String) value).length()
+                : value instanceof byte[] ? ((byte[]) value).length : -1;
+        objectTypes[index] = value == null ? null : value.getClass();
+    }
+
+    /**
+     * @return The bound parameters as setter types, e.g. [Int, String(12), Null].
+     */
+    String describeParameters(){
+        StringBuilder shapes = new StringBuilder("[");
+        for(int i = 1; i < setters.length; i++){
+            Method setter = setters[i];
+            if(setter == null){
+                continue;
+            }
+            if(shapes.length() > 1){
+                shapes.append(", ");
+            }
+            String type = setter.getName().substring(3);
+            if(type.equals("Object") && objectTypes[i] != null){
+                type = objectTypes[i].getSimpleName();
+            }
+            shapes.append(type);
+            if(lengths[i] >= 0){
+                shapes.append('(').append(lengths[i]).append(')');
+            }
+        }
+        return shapes.append(']').toString();
+    }
+
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+
+    /**
+     * Invocation handler behind result sets, adding the time spent in next() to the execution.
+     */
+    private class TimedResults implements InvocationHandler {
+
+        private final ResultSet results;
+
+        TimedResults(ResultSet results){
+            this.results = results;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next":
+                    long start = System.nanoTime();
+                    try {
+                        boolean hasRow = (Boolean) invokeOn(results, method, args);
+                        if(hasRow){
+                            rows++;
+                        }
+                        return hasRow;
+                    } finally {
+                        fetchNanos += System.nanoTime() - start;
+                    }
+                case "close":
+                    Object result = invokeOn(results, method, args);
+                    finishExecution();
+                    return result;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return invokeOn(results, method, args);
+            }
+        }
+    }
+}
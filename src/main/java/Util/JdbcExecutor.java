@@ -0,0 +1,195 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded executor for blocking JDBC work, so callers can get a CompletableFuture instead of waiting.
+ *
+ * There are as many threads as the connection pool has connections, so work beyond that waits in a
+ * bounded queue here rather than on the pool. When the queue is full, supply() fails straight away with
+ * a RejectedExecutionException.
+ *
+ * Every future from supply() fails with a TimeoutException if it hasn't completed within timeoutMillis.
+ * Work that times out or is cancelled while still queued never runs. Work that has already started is
+ * left to finish: its thread is not interrupted, because an interrupt during a write can make H2 close
+ * its file channel. A timed out read may therefore still be running, and a timed out write may still
+ * commit. Writes go through supplyWrite() instead, which only times out work that hasn't started.
+ *
+ * If the caller's thread has a ServerTiming bound, the task runs with it bound too and its run time is
+ * added to the service phase.
+ */
+public class JdbcExecutor implements AutoCloseable {
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * @param threads The most JDBC calls run at once.
+     * @param queueCapacity How many calls may wait for a thread before new ones are rejected.
+     * @param timeoutMillis How long a caller waits for a result before its future fails.
+     */
+    public JdbcExecutor(int threads, int queueCapacity, long timeoutMillis){
+        this.timeoutMillis = timeoutMillis;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "jdbc-async-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+
+    /**
+     * Builds an executor sized to ConnectionUtil's pool, with the queue and timeout taken from the
+     * db.async.queueCapacity (1000) and db.async.timeoutMillis (10000) system properties.
+     *
+     * @return The executor.
+     */
+    public static JdbcExecutor fromSystemProperties(){
+        return new JdbcExecutor(ConnectionUtil.getPool().getMaxSize(),
+                Integer.getInteger("db.async.queueCapacity", 1000),
+                Long.getLong("db.async.timeoutMillis", 10_000));
+    }
+
+
+    /**
+     * Runs task on a JDBC thread.
+     *
+     * @param task The blocking call, usually a DAO or service method.
+     * @param <T> The result type.
+     * @return A future completed with the task's result or exception, or with a TimeoutException or
+     *         RejectedExecutionException. Cancelling it before the task starts stops the task from running.
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> task){
+        return submit(task, false);
+    }
+
+    /**
+     * Runs a write on a JDBC thread. Unlike supply(), the future only times out while the write is
+     * still queued, and the write is then never run. Once it has started it is waited for however
+     * long it takes, so a TimeoutException always means the write was not applied.
+     *
+     * @param task The blocking write, usually a DAO or service method.
+     * @param <T> The result type.
+     * @return A future completed with the task's result or exception, or with a TimeoutException or
+     *         RejectedExecutionException. Cancelling it before the task starts stops the task from running.
+     */
+    public <T> CompletableFuture<T> supplyWrite(Supplier<T> task){
+        return submit(task, true);
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task, boolean write){
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ServerTiming timing = ServerTiming.current();
+        long generation = timing == null ? 0 : timing.getGeneration();
+        Runnable call = () -> {
+            if(result.isDone()){
+                // Cancelled or timed out after it was taken off the queue but before it started
+                skipped.increment();
+                return;
+            }
+            // Bound while the result is completed too, so work chained onto it is timed for the same request
+            ServerTiming.bind(timing, generation);
+            try {
+                long start = System.nanoTime();
+                T value;
+                try {
+                    value = task.get();
+                } finally {
+                    ServerTiming.addToCurrent(ServerTiming.SERVICE, System.nanoTime() - start);
+                }
+                result.complete(value);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                ServerTiming.unbind();
+            }
+        };
+
+        try {
+            executor.execute(call);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        if(write){
+            CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                // Only a write that is still queued can be given up on without it being applied
+                if(!result.isDone() && executor.remove(call)){
+                    timedOut.increment();
+                    skipped.increment();
+                    result.completeExceptionally(new TimeoutException());
+                }
+            });
+            result.whenComplete((value, error) -> {
+                if(error != null && executor.remove(call)){
+                    skipped.increment();
+                }
+            });
+            return result;
+        }
+
+        result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, error) -> {
+            if(error instanceof TimeoutException){
+                timedOut.increment();
+            }
+            // A call that gave up while still queued frees its slot for new work straight away
+            if(error != null && executor.remove(call)){
+                skipped.increment();
+            }
+        });
+        return result;
+    }
+
+
+    /** @return The number of calls waiting for a thread. */
+    public int getQueueDepth(){
+        return executor.getQueue().size();
+    }
+
+    /** @return The number of calls running right now. */
+    public int getActiveCount(){
+        return executor.getActiveCount();
+    }
+
+    /** @return The number of calls turned away because the queue was full. */
+    public long getRejectedCount(){
+        return rejected.sum();
+    }
+
+    /** @return The number of calls whose caller stopped waiting after timeoutMillis. */
+    public long getTimedOutCount(){
+        return timedOut.sum();
+    }
+
+    /** @return The number of queued calls dropped because they were cancelled or timed out before they started. */
+    public long getSkippedCount(){
+        return skipped.sum();
+    }
+
+
+    /**
+     * Stops accepting work. Calls already queued or running still complete.
+     */
+    @Override
+    public void close(){
+        executor.shutdown();
+    }
+}
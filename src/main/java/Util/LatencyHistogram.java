@@ -0,0 +1,106 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram in the style of HdrHistogram: nanosecond values are counted in
+ * buckets whose width grows with the value, so every bucket is within about 3% of the values in it,
+ * from nanoseconds up to minutes, in a fixed 1152 slots.
+ *
+ * Values below 64ns get a slot each. Above that, each power of two is split into 32 equal slots.
+ * Recording is one array increment and one add, with no locks or allocation. Reads see each counter
+ * atomically but not all of them at one instant, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The largest value counted exactly, about 18 minutes. Anything above goes in the last slot. */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int SLOTS = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param nanos The latency to record. Negative values count as 0.
+     */
+    public void record(long nanos){
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+    }
+
+    /** @return The number of values recorded. */
+    public long getCount(){
+        long count = 0;
+        for(int i = 0; i < SLOTS; i++){
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /** @return The sum of the values recorded, in nanoseconds. */
+    public long getSumNanos(){
+        return sum.sum();
+    }
+
+    /**
+     * @param maxNanos An upper bound.
+     * @return How many values were at most maxNanos, give or take the width of one slot.
+     */
+    public long getCountAtOrBelow(long maxNanos){
+        int last = indexOf(Math.max(0, Math.min(maxNanos, MAX_VALUE)));
+        long count = 0;
+        for(int i = 0; i <= last; i++){
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param quantile Between 0 and 1, e.g. 0.99.
+     * @return The value at that quantile in nanoseconds, as the upper edge of its slot, or 0 if
+     *         nothing was recorded.
+     */
+    public long getValueAtQuantile(double quantile){
+        long[] snapshot = new long[SLOTS];
+        long count = 0;
+        for(int i = 0; i < SLOTS; i++){
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if(count == 0){
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for(int i = 0; i < SLOTS; i++){
+            seen += snapshot[i];
+            if(seen >= rank){
+                return highestValueAt(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+
+    static int indexOf(long value){
+        int magnitude = 63 - Long.numberOfLeadingZeros(value | (2 * SUB_BUCKETS - 1));
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long highestValueAt(int index){
+        if(index < 2 * SUB_BUCKETS){
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
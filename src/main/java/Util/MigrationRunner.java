@@ -0,0 +1,130 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the numbered schema migrations in db/migration on the classpath.
+ *
+ * Migrations are named V1.sql, V2.sql, ... and are applied in order, each one once. The applied
+ * versions are recorded in the schema_version table, so running the migrations again only applies
+ * new scripts and never drops data. The first line of a script, if it is a -- comment, is recorded
+ * as its description.
+ */
+public class MigrationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(MigrationRunner.class);
+
+    private static final String MIGRATION_PATH = "db/migration/V";
+
+    private MigrationRunner(){
+    }
+
+
+    /**
+     * Applies every migration newer than the current schema version.
+     *
+     * @param connection The connection to run the migrations on.
+     * @return The number of migrations applied.
+     * @throws SQLException If a migration fails. Migrations before it stay applied.
+     */
+    public static synchronized int migrate(Connection connection) throws SQLException {
+
+        try(Statement statement = connection.createStatement()){
+            statement.execute("create table if not exists schema_version ("
+                    + "version int primary key, "
+                    + "description varchar(255), "
+                    + "applied_on timestamp default current_timestamp)");
+        }
+
+        int current = currentVersion(connection);
+        int applied = 0;
+
+        for(int version = current + 1; ; version++){
+            String script = loadScript(version);
+            if(script == null){
+                break;
+            }
+            apply(connection, version, script);
+            applied++;
+        }
+
+        if(applied > 0){
+            logger.info("Applied {} migration(s), schema is now at version {}", applied, current + applied);
+        }
+        return applied;
+    }
+
+
+    /**
+     * @param connection The connection to query.
+     * @return The highest applied migration version, 0 if none have been applied.
+     */
+    public static int currentVersion(Connection connection) throws SQLException {
+        try(PreparedStatement preparedStatement = connection.prepareStatement("SELECT COALESCE(MAX(version), 0) FROM schema_version");
+            ResultSet resultSet = preparedStatement.executeQuery()){
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+
+    private static void apply(Connection connection, int version, String script) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+
+        try(Reader reader = new StringReader(script)){
+            RunScript.execute(connection, reader);
+
+            try(PreparedStatement preparedStatement = connection.prepareStatement(
+                    "INSERT INTO schema_version (version, description) VALUES (?, ?)")){
+                preparedStatement.setInt(1, version);
+                preparedStatement.setString(2, describe(script));
+                preparedStatement.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw new SQLException("Migration V" + version + " failed: " + e.getMessage(), e);
+        } catch (IOException e) {
+            // A StringReader can't actually fail to close
+            throw new IllegalStateException(e);
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+
+    private static String loadScript(int version) throws SQLException {
+        try(InputStream in = MigrationRunner.class.getClassLoader().getResourceAsStream(MIGRATION_PATH + version + ".sql")){
+            if(in == null){
+                return null;
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Could not read migration V" + version + ": " + e.getMessage(), e);
+        }
+    }
+
+
+    private static String describe(String script){
+        String firstLine = script.lines().findFirst().orElse("").trim();
+        if(firstLine.startsWith("--")){
+            return firstLine.substring(2).trim();
+        }
+        return null;
+    }
+}
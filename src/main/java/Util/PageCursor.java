@@ -0,0 +1,81 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * An opaque keyset pagination cursor. A cursor remembers the message_id a page stopped at and
+ * which direction the client is paging in, encoded as URL-safe base64 so clients treat it as a token.
+ */
+public class PageCursor {
+
+    private final boolean forward;
+    private final int messageId;
+
+    private PageCursor(boolean forward, int messageId){
+        this.forward = forward;
+        this.messageId = messageId;
+    }
+
+    /**
+     * @param messageId The last message_id on the current page.
+     * @return A cursor for the messages after messageId.
+     */
+    public static PageCursor after(int messageId){
+        return new PageCursor(true, messageId);
+    }
+
+    /**
+     * @param messageId The first message_id on the current page.
+     * @return A cursor for the messages before messageId.
+     */
+    public static PageCursor before(int messageId){
+        return new PageCursor(false, messageId);
+    }
+
+    /**
+     * Decodes a cursor previously returned by encode().
+     *
+     * @param token The cursor token from the request.
+     * @return The decoded cursor.
+     * @throws IllegalArgumentException If the token was not produced by encode().
+     */
+    public static PageCursor decode(String token){
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            if(decoded.length() < 3 || decoded.charAt(1) != ':'){
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            int messageId = Integer.parseInt(decoded.substring(2));
+            switch (decoded.charAt(0)) {
+                case 'a':
+                    return after(messageId);
+                case 'b':
+                    return before(messageId);
+                default:
+                    throw new IllegalArgumentException("Malformed cursor");
+            }
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException and bad base64 both land here
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+    }
+
+    /**
+     * @return The cursor as an opaque URL-safe token.
+     */
+    public String encode(){
+        String raw = (forward ? "a:" : "b:") + messageId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @return True if the cursor pages towards higher message_ids. */
+    public boolean isForward(){
+        return forward;
+    }
+
+    /** @return The message_id the cursor is positioned at, exclusive. */
+    public int getMessageId(){
+        return messageId;
+    }
+}
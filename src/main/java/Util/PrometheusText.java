@@ -0,0 +1,142 @@
+package Util;
+
+/**
+ * Builds a response in the Prometheus text exposition format (version 0.0.4).
+ *
+ * Each metric is declared once with its type and help text, followed by its samples. Label values
+ * are escaped; names and label names must already be valid.
+ */
+public class PrometheusText {
+
+    /** The Content-Type a scrape expects. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder text = new StringBuilder(4096);
+
+    /**
+     * Starts a metric.
+     *
+     * @param name The metric name.
+     * @param type counter, gauge, histogram or summary.
+     * @param help One line describing it.
+     * @return This, to chain samples.
+     */
+    public PrometheusText declare(String name, String type, String help){
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Declares a metric with a single unlabelled sample.
+     */
+    public PrometheusText single(String name, String type, String help, double value){
+        return declare(name, type, help).sample(name, value);
+    }
+
+    /**
+     * @param name The sample name, the metric name or one with a _bucket, _sum or _count suffix.
+     * @param value The value.
+     * @return This.
+     */
+    public PrometheusText sample(String name, double value){
+        text.append(name).append(' ');
+        appendValue(value);
+        text.append('\n');
+        return this;
+    }
+
+    /**
+     * @param labels Alternating label names and values.
+     */
+    public PrometheusText sample(String name, double value, String... labels){
+        text.append(name).append('{');
+        for(int i = 0; i < labels.length; i += 2){
+            if(i > 0){
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"");
+            appendEscaped(labels[i + 1]);
+            text.append('"');
+        }
+        text.append("} ");
+        appendValue(value);
+        text.append('\n');
+        return this;
+    }
+
+    /**
+     * Writes the _bucket, _sum and _count samples of one histogram series. Declare the metric first.
+     *
+     * @param name The metric name.
+     * @param histogram The latencies, in nanoseconds.
+     * @param bounds The bucket upper bounds in seconds, ascending. A +Inf bucket is added.
+     * @param labels Alternating label names and values.
+     * @return This.
+     */
+    public PrometheusText histogram(String name, LatencyHistogram histogram, double[] bounds, String... labels){
+        for(double bound : bounds){
+            sample(name + "_bucket", histogram.getCountAtOrBelow((long) (bound * 1e9)), with(labels, "le", Double.toString(bound)));
+        }
+        long count = histogram.getCount();
+        sample(name + "_bucket", count, with(labels, "le", "+Inf"));
+        sample(name + "_sum", histogram.getSumNanos() / 1e9, labels);
+        return sample(name + "_count", count, labels);
+    }
+
+    /**
+     * Writes one summary series of quantiles read from a histogram. Declare the metric first.
+     *
+     * @param name The metric name.
+     * @param histogram The latencies, in nanoseconds.
+     * @param quantiles The quantiles to report, e.g. 0.5 and 0.99.
+     * @param labels Alternating label names and values.
+     * @return This.
+     */
+    public PrometheusText quantiles(String name, LatencyHistogram histogram, double[] quantiles, String... labels){
+        for(double quantile : quantiles){
+            sample(name, histogram.getValueAtQuantile(quantile) / 1e9, with(labels, "quantile", Double.toString(quantile)));
+        }
+        sample(name + "_sum", histogram.getSumNanos() / 1e9, labels);
+        return sample(name + "_count", histogram.getCount(), labels);
+    }
+
+    @Override
+    public String toString(){
+        return text.toString();
+    }
+
+
+    private void appendValue(double value){
+        if(value == Math.rint(value) && Math.abs(value) < 1e15){
+            text.append((long) value);
+        } else if(Double.isNaN(value)){
+            text.append("NaN");
+        } else if(Double.isInfinite(value)){
+            text.append(value > 0 ? "+Inf" : "-Inf");
+        } else {
+            text.append(value);
+        }
+    }
+
+    private void appendEscaped(String value){
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if(c == '\\' || c == '"'){
+                text.append('\\').append(c);
+            } else if(c == '\n'){
+                text.append("\\n");
+            } else {
+                text.append(c);
+            }
+        }
+    }
+
+    private static String[] with(String[] labels, String name, String value){
+        String[] extended = new String[labels.length + 2];
+        System.arraycopy(labels, 0, extended, 0, labels.length);
+        extended[labels.length] = name;
+        extended[labels.length + 1] = value;
+        return extended;
+    }
+}
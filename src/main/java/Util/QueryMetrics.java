@@ -0,0 +1,256 @@
+package Util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timings of the prepared statements run through a ConnectionPool, aggregated per SQL text.
+ *
+ * Each execution is split into three phases: acquire, the wait for a pooled connection; execute,
+ * the call that runs the statement; and fetch, the time spent in ResultSet.next() reading its rows.
+ * A connection is acquired before any SQL is known, so its acquire time is charged to the first
+ * statement prepared on it, which is the one the borrow was for. Executions whose phases add up to
+ * more than the slow query threshold are logged with the shape of their bind parameters, such as
+ * [Int, String(12)], never their values, so the log can't leak passwords or message text.
+ */
+public class QueryMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryMetrics.class);
+
+    /** The histogram bucket bounds exposed to Prometheus, in seconds. */
+    private static final double[] BUCKET_BOUNDS = {
+            0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5};
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /** How many slow queries getRecentSlowQueries() remembers. */
+    private static final int RECENT_SLOW_QUERIES = 32;
+
+    /** The SQL label used once maxStatements distinct statements are being tracked. */
+    static final String OTHER_SQL = "other";
+
+    private final long slowQueryNanos;
+    private final int maxStatements;
+    private final ConcurrentHashMap<String, StatementStats> statements = new ConcurrentHashMap<>();
+    private final StatementStats other = new StatementStats(OTHER_SQL);
+    private final LatencyHistogram acquire = new LatencyHistogram();
+    private final LongAdder slowQueries = new LongAdder();
+    private final ArrayDeque<String> recentSlowQueries = new ArrayDeque<>(RECENT_SLOW_QUERIES);
+
+    /**
+     * @param slowQueryMillis Executions taking longer than this are logged, a negative value disables the log.
+     * @param maxStatements The number of distinct SQL texts timed separately, the rest are counted as "other".
+     */
+    public QueryMetrics(long slowQueryMillis, int maxStatements){
+        this.slowQueryNanos = slowQueryMillis < 0 ? Long.MAX_VALUE : slowQueryMillis * 1_000_000;
+        this.maxStatements = maxStatements;
+    }
+
+
+    /**
+     * @param sql The SQL text passed to prepareStatement().
+     * @return The statistics for that text, created on first use.
+     */
+    StatementStats statsFor(String sql){
+        StatementStats stats = statements.get(sql);
+        if(stats != null){
+            return stats;
+        }
+        if(statements.size() >= maxStatements){
+            return other;
+        }
+        return statements.computeIfAbsent(sql, text -> new StatementStats(normalize(text)));
+    }
+
+    /**
+     * Records how long a caller waited in ConnectionPool.getConnection().
+     */
+    void connectionAcquired(long nanos){
+        acquire.record(nanos);
+    }
+
+    /**
+     * Records one execution of a statement and logs it if it was slow.
+     *
+     * @param stats The statement's statistics.
+     * @param acquireNanos The acquire time charged to this execution, or 0.
+     * @param executeNanos The time spent in execute calls.
+     * @param fetchNanos The time spent reading results, or -1 if there were none.
+     * @param rows The number of rows read.
+     * @param failed Whether the execute call threw.
+     * @param parameterShapes The bind parameter shapes, only called for slow queries.
+     */
+    void executionFinished(StatementStats stats, long acquireNanos, long executeNanos, long fetchNanos, long rows,
+                           boolean failed, Supplier<String> parameterShapes){
+        if(acquireNanos > 0){
+            stats.acquire.record(acquireNanos);
+        }
+        stats.execute.record(executeNanos);
+        if(fetchNanos >= 0){
+            stats.fetch.record(fetchNanos);
+        }
+        stats.rows.add(rows);
+        if(failed){
+            stats.errors.increment();
+        }
+
+        long totalNanos = acquireNanos + executeNanos + Math.max(fetchNanos, 0);
+        if(totalNanos > slowQueryNanos){
+            stats.slow.increment();
+            slowQueries.increment();
+            String entry = String.format("%.1fms (acquire %.1fms, execute %.1fms, fetch %.1fms, %d rows%s) %s with parameters %s",
+                    totalNanos / 1e6, acquireNanos / 1e6, executeNanos / 1e6, Math.max(fetchNanos, 0) / 1e6, rows,
+                    failed ? ", failed" : "", stats.sql, parameterShapes.get());
+            logger.warn("Slow query: {}", entry);
+            synchronized (recentSlowQueries){
+                if(recentSlowQueries.size() == RECENT_SLOW_QUERIES){
+                    recentSlowQueries.pollFirst();
+                }
+                recentSlowQueries.offerLast(entry);
+            }
+        }
+    }
+
+
+    /**
+     * @param sql The SQL text, as passed to prepareStatement().
+     * @return Its statistics, or null if it hasn't been prepared.
+     */
+    public StatementStats getStats(String sql){
+        return statements.get(sql);
+    }
+
+    /** @return The time callers waited for a connection, including borrows that prepared nothing. */
+    public LatencyHistogram getAcquireHistogram(){
+        return acquire;
+    }
+
+    /** @return The number of executions over the slow query threshold. */
+    public long getSlowQueryCount(){
+        return slowQueries.sum();
+    }
+
+    /** @return The most recent slow query log lines, oldest first. */
+    public List<String> getRecentSlowQueries(){
+        synchronized (recentSlowQueries){
+            return new ArrayList<>(recentSlowQueries);
+        }
+    }
+
+
+    /**
+     * Writes a histogram per statement and phase, their quantiles, and per statement row, error and
+     * slow query counters.
+     *
+     * @param prometheus The response being built.
+     */
+    public void writeTo(PrometheusText prometheus){
+        Map<String, StatementStats> sorted = new TreeMap<>();
+        statements.values().forEach(stats -> sorted.put(stats.sql, stats));
+        if(other.execute.getCount() > 0){
+            sorted.put(OTHER_SQL, other);
+        }
+
+        prometheus.declare("db_pool_acquire_duration_seconds", "histogram", "Time spent waiting for a pooled connection.");
+        prometheus.histogram("db_pool_acquire_duration_seconds", acquire, BUCKET_BOUNDS);
+
+        prometheus.declare("db_query_duration_seconds", "histogram",
+                "Time per statement and phase: acquire, execute or fetch.");
+        sorted.forEach((sql, stats) -> stats.forEachPhase((phase, histogram) ->
+                prometheus.histogram("db_query_duration_seconds", histogram, BUCKET_BOUNDS, "sql", sql, "phase", phase)));
+
+        prometheus.declare("db_query_duration_quantiles_seconds", "summary",
+                "Quantiles of the statement phase times since start, within about 3%.");
+        sorted.forEach((sql, stats) -> stats.forEachPhase((phase, histogram) ->
+                prometheus.quantiles("db_query_duration_quantiles_seconds", histogram, QUANTILES, "sql", sql, "phase", phase)));
+
+        prometheus.declare("db_query_rows_total", "counter", "Rows read from result sets, by statement.");
+        sorted.forEach((sql, stats) -> prometheus.sample("db_query_rows_total", stats.rows.sum(), "sql", sql));
+        prometheus.declare("db_query_errors_total", "counter", "Executions that threw, by statement.");
+        sorted.forEach((sql, stats) -> prometheus.sample("db_query_errors_total", stats.errors.sum(), "sql", sql));
+        prometheus.declare("db_query_slow_total", "counter", "Executions over the slow query threshold, by statement.");
+        sorted.forEach((sql, stats) -> prometheus.sample("db_query_slow_total", stats.slow.sum(), "sql", sql));
+    }
+
+
+    /**
+     * Collapses runs of whitespace so SQL split over several lines reads as one in logs and labels.
+     */
+    static String normalize(String sql){
+        return sql.trim().replaceAll("\\s+", " ");
+    }
+
+
+    private interface PhaseVisitor {
+        void visit(String phase, LatencyHistogram histogram);
+    }
+
+    /**
+     * The phase histograms and counters of one SQL text.
+     */
+    public static class StatementStats {
+
+        private final String sql;
+        private final LatencyHistogram acquire = new LatencyHistogram();
+        private final LatencyHistogram execute = new LatencyHistogram();
+        private final LatencyHistogram fetch = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder slow = new LongAdder();
+
+        StatementStats(String sql){
+            this.sql = sql;
+        }
+
+        /** @return The SQL text with its whitespace collapsed. */
+        public String getSql(){
+            return sql;
+        }
+
+        /** @return Acquire times charged to this statement, one per connection it was the first use of. */
+        public LatencyHistogram getAcquire(){
+            return acquire;
+        }
+
+        /** @return Execute times, one per execution. */
+        public LatencyHistogram getExecute(){
+            return execute;
+        }
+
+        /** @return Fetch times, one per execution that returned a result set. */
+        public LatencyHistogram getFetch(){
+            return fetch;
+        }
+
+        public long getRows(){
+            return rows.sum();
+        }
+
+        public long getErrors(){
+            return errors.sum();
+        }
+
+        public long getSlowCount(){
+            return slow.sum();
+        }
+
+        private void forEachPhase(PhaseVisitor visitor){
+            if(acquire.getCount() > 0){
+                visitor.visit("acquire", acquire);
+            }
+            visitor.visit("execute", execute);
+            if(fetch.getCount() > 0){
+                visitor.visit("fetch", fetch);
+            }
+        }
+    }
+}
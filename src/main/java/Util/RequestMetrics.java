@@ -0,0 +1,112 @@
+package Util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Request latencies per method, route and status code, and the number of requests in flight.
+ *
+ * Recording looks up an existing LatencyHistogram without locking or allocating; only the first
+ * request to a new route or status creates one. Routes are the patterns requests matched, such as
+ * /messages/{message_id}, so the number of histograms stays bounded.
+ */
+public class RequestMetrics {
+
+    /** The histogram bucket bounds exposed to Prometheus, in seconds. */
+    private static final double[] BUCKET_BOUNDS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram>>> histograms =
+            new ConcurrentHashMap<>();
+    private final AtomicLong inFlight = new AtomicLong();
+
+    /**
+     * Call when a request arrives, and requestFinished when it is answered.
+     */
+    public void requestStarted(){
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * @param method The HTTP method.
+     * @param route The route pattern the request matched.
+     * @param status The response status code.
+     * @param nanos How long the request took.
+     */
+    public void requestFinished(String method, String route, int status, long nanos){
+        inFlight.decrementAndGet();
+        histogramFor(method, route, status).record(nanos);
+    }
+
+    /** @return The number of requests started and not finished. */
+    public long getInFlight(){
+        return inFlight.get();
+    }
+
+    /**
+     * @return The histogram of one method, route and status, created on first use.
+     */
+    public LatencyHistogram histogramFor(String method, String route, int status){
+        AtomicReferenceArray<LatencyHistogram> byStatus = histograms
+                .computeIfAbsent(method, m -> new ConcurrentHashMap<>())
+                .computeIfAbsent(route, r -> new AtomicReferenceArray<>(MAX_STATUS - MIN_STATUS + 1));
+
+        int slot = Math.max(MIN_STATUS, Math.min(status, MAX_STATUS)) - MIN_STATUS;
+        LatencyHistogram histogram = byStatus.get(slot);
+        if(histogram == null){
+            byStatus.compareAndSet(slot, null, new LatencyHistogram());
+            histogram = byStatus.get(slot);
+        }
+        return histogram;
+    }
+
+
+    /**
+     * Writes the in-flight gauge, a histogram of request durations and their quantiles.
+     *
+     * @param prometheus The response being built.
+     */
+    public void writeTo(PrometheusText prometheus){
+        prometheus.single("http_server_requests_in_flight", "gauge",
+                "Requests being handled right now.", inFlight.get());
+
+        Map<String, Map<String, AtomicReferenceArray<LatencyHistogram>>> sorted = new TreeMap<>();
+        histograms.forEach((method, routes) -> sorted.put(method, new TreeMap<>(routes)));
+
+        prometheus.declare("http_server_request_duration_seconds", "histogram",
+                "Time from a request arriving to its response being complete, by method, route and status.");
+        forEachHistogram(sorted, (labels, histogram) ->
+                prometheus.histogram("http_server_request_duration_seconds", histogram, BUCKET_BOUNDS, labels));
+
+        prometheus.declare("http_server_request_duration_quantiles_seconds", "summary",
+                "Quantiles of the request durations since start, within about 3%.");
+        forEachHistogram(sorted, (labels, histogram) ->
+                prometheus.quantiles("http_server_request_duration_quantiles_seconds", histogram, QUANTILES, labels));
+    }
+
+
+    private interface HistogramVisitor {
+        void visit(String[] labels, LatencyHistogram histogram);
+    }
+
+    private static void forEachHistogram(Map<String, Map<String, AtomicReferenceArray<LatencyHistogram>>> sorted,
+                                         HistogramVisitor visitor){
+        sorted.forEach((method, routes) -> routes.forEach((route, byStatus) -> {
+            for(int slot = 0; slot < byStatus.length(); slot++){
+                LatencyHistogram histogram = byStatus.get(slot);
+                if(histogram != null){
+                    visitor.visit(new String[]{"method", method, "route", route,
+                            "status", Integer.toString(slot + MIN_STATUS)}, histogram);
+                }
+            }
+        }));
+    }
+}
@@ -0,0 +1,137 @@
+package Util;
+
+/**
+ * Where one sampled request spent its time, reported to the client as a Server-Timing header.
+ *
+ * Instances are preallocated by ServerTimingSampler and reused, so timing a request allocates nothing
+ * but the header value itself. Phases are accumulated as nanoseconds into a fixed array: parse for
+ * reading the request body, service for the calls run on the JdbcExecutor, dao for the statements
+ * those calls execute or the group commit batch a create waited on, and serialize for writing the
+ * response body. The service phase is reported without the dao time inside it.
+ *
+ * The request thread and the JDBC thread working for it take turns, each handing over through a
+ * CompletableFuture, so the counters need no locking. JDBC threads find the timing of the request
+ * they are working for with current(). Each reuse bumps a generation, so work that outlives its
+ * request, such as a call whose caller timed out, stops adding to the timing once it is reused.
+ */
+public class ServerTiming {
+
+    public static final int PARSE = 0;
+    public static final int SERVICE = 1;
+    public static final int DAO = 2;
+    public static final int SERIALIZE = 3;
+
+    private static final String[] PHASE_NAMES = {"parse", "service", "dao", "serialize"};
+
+    private static final ThreadLocal<Binding> binding = ThreadLocal.withInitial(Binding::new);
+
+    private final long[] phaseNanos = new long[PHASE_NAMES.length];
+    private final StringBuilder header = new StringBuilder(128);
+    private volatile long generation;
+
+    ServerTiming(){
+    }
+
+
+    /**
+     * Clears the phases for a new request.
+     */
+    void reset(){
+        generation++;
+        for(int i = 0; i < phaseNanos.length; i++){
+            phaseNanos[i] = 0;
+        }
+    }
+
+    /** @return Identifies the current use of this instance, see bind(). */
+    public long getGeneration(){
+        return generation;
+    }
+
+    /**
+     * @param phase PARSE, SERVICE, DAO or SERIALIZE.
+     * @param nanos Time to add to it.
+     */
+    public void add(int phase, long nanos){
+        phaseNanos[phase] += nanos;
+    }
+
+    /** @return The time accumulated in a phase. */
+    public long getNanos(int phase){
+        return phaseNanos[phase];
+    }
+
+    /**
+     * @param totalNanos The time since the request arrived.
+     * @return The Server-Timing header value, e.g. "parse;dur=0.041, service;dur=0.120, ..." in milliseconds.
+     */
+    public String toHeader(long totalNanos){
+        header.setLength(0);
+        for(int phase = 0; phase < PHASE_NAMES.length; phase++){
+            long nanos = phase == SERVICE ? Math.max(0, phaseNanos[SERVICE] - phaseNanos[DAO]) : phaseNanos[phase];
+            appendMetric(PHASE_NAMES[phase], nanos);
+            header.append(", ");
+        }
+        appendMetric("total", totalNanos);
+        return header.toString();
+    }
+
+    private void appendMetric(String name, long nanos){
+        long micros = Math.max(0, nanos) / 1000;
+        header.append(name).append(";dur=").append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if(fraction < 100){
+            header.append('0');
+        }
+        if(fraction < 10){
+            header.append('0');
+        }
+        header.append(fraction);
+    }
+
+
+    /**
+     * @return The timing bound to this thread, or null if it isn't working for a sampled request or
+     *         the request has finished.
+     */
+    public static ServerTiming current(){
+        Binding bound = binding.get();
+        ServerTiming timing = bound.timing;
+        return timing != null && timing.generation == bound.generation ? timing : null;
+    }
+
+    /**
+     * Binds a request's timing to this thread until unbind(). Bindings don't nest.
+     *
+     * @param timing The timing, or null to bind nothing.
+     * @param generation Its generation when the work was handed over.
+     */
+    public static void bind(ServerTiming timing, long generation){
+        Binding bound = binding.get();
+        bound.timing = timing;
+        bound.generation = generation;
+    }
+
+    public static void unbind(){
+        binding.get().timing = null;
+    }
+
+    /**
+     * Adds to a phase of the timing bound to this thread, if there is one.
+     */
+    public static void addToCurrent(int phase, long nanos){
+        ServerTiming timing = current();
+        if(timing != null){
+            timing.add(phase, nanos);
+        }
+    }
+
+
+    /**
+     * One per thread, so binding doesn't allocate.
+     */
+    private static class Binding {
+        private ServerTiming timing;
+        private long generation;
+    }
+}
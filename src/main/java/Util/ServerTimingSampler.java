@@ -0,0 +1,73 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which requests get a Server-Timing header and lends them a preallocated ServerTiming.
+ *
+ * A request is sampled if it asks for it, or if it is one of every sampleEvery requests. Both can be
+ * switched off, so the header can stay enabled in production at a low rate. If every instance is in
+ * use, further requests go untimed rather than allocating more.
+ */
+public class ServerTimingSampler {
+
+    private final int sampleEvery;
+    private final ArrayBlockingQueue<ServerTiming> free;
+    private final AtomicLong requests = new AtomicLong();
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    /**
+     * @param sampleEvery Time one request in this many, 0 to only time requests that ask.
+     * @param capacity The number of ServerTiming instances, i.e. of sampled requests in flight at once.
+     */
+    public ServerTimingSampler(int sampleEvery, int capacity){
+        this.sampleEvery = sampleEvery;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        for(int i = 0; i < capacity; i++){
+            free.offer(new ServerTiming());
+        }
+    }
+
+
+    /**
+     * @param requested Whether the request asked for timing.
+     * @return A reset timing to record the request into, or null if it isn't sampled.
+     */
+    public ServerTiming start(boolean requested){
+        boolean sample = requested || (sampleEvery > 0 && requests.incrementAndGet() % sampleEvery == 0);
+        if(!sample){
+            return null;
+        }
+        ServerTiming timing = free.poll();
+        if(timing == null){
+            exhausted.increment();
+            return null;
+        }
+        sampled.increment();
+        timing.reset();
+        return timing;
+    }
+
+    /**
+     * Returns a timing from start() once its request has been answered.
+     */
+    public void finish(ServerTiming timing){
+        // Invalidates bindings still held by JDBC threads before the instance can be lent out again
+        timing.reset();
+        free.offer(timing);
+    }
+
+
+    /** @return The number of requests timed. */
+    public long getSampledCount(){
+        return sampled.sum();
+    }
+
+    /** @return The number of requests that would have been timed but found every instance in use. */
+    public long getExhaustedCount(){
+        return exhausted.sum();
+    }
+}
@@ -0,0 +1,158 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import Exceptions.UnauthorizedException;
+
+/**
+ * Issues and checks stateless session tokens.
+ *
+ * A token is "account_id.expiry.signature", where expiry is in epoch seconds and signature is the
+ * URL-safe base64 HMAC-SHA256 of "account_id.expiry". Checking a token only recomputes the HMAC, so it
+ * needs no database or cache lookup, and the signatures are compared in constant time.
+ *
+ * Tokens stay valid until they expire, they can't be revoked one by one. Changing the secret
+ * invalidates all of them.
+ */
+public class SessionTokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+
+    /** At most this many idle Macs are kept, more than that are left to the garbage collector. */
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+
+    /**
+     * Mac isn't thread-safe, so a request borrows one from the pool and returns it. A thread per
+     * Mac wouldn't do, with virtual threads every request is a new thread. When the pool is empty
+     * the prototype, keyed once, is cloned, which skips the provider lookup and the key setup.
+     */
+    private final Mac prototype;
+    private final ArrayBlockingQueue<Mac> macs = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * @param secret The HMAC key, at least 32 bytes.
+     * @param ttlSeconds How long an issued token stays valid.
+     */
+    public SessionTokenSigner(byte[] secret, long ttlSeconds){
+        if(secret.length < 32){
+            throw new IllegalArgumentException("Session secret must be at least 32 bytes");
+        }
+        this.key = new SecretKeySpec(secret.clone(), ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        this.prototype = newMac();
+    }
+
+
+    /**
+     * Builds a signer from the session.secret system property (base64), or from a random secret if it
+     * isn't set. With a random secret, tokens don't survive a restart.
+     *
+     * @param ttlSeconds How long an issued token stays valid.
+     * @return The signer.
+     */
+    public static SessionTokenSigner fromSystemProperties(long ttlSeconds){
+        String configured = System.getProperty("session.secret");
+        byte[] secret;
+        if(configured != null){
+            secret = Base64.getDecoder().decode(configured);
+        } else {
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+        }
+        return new SessionTokenSigner(secret, ttlSeconds);
+    }
+
+
+    /**
+     * @param accountId The account the token authenticates.
+     * @return A token valid for ttlSeconds from now.
+     */
+    public String issue(int accountId){
+        long expiry = System.currentTimeMillis() / 1000 + ttlSeconds;
+        String payload = accountId + "." + expiry;
+        return payload + "." + encoder.encodeToString(sign(payload));
+    }
+
+
+    /**
+     * Checks a token's signature and expiry.
+     *
+     * @param token A token from issue().
+     * @return The account_id the token was issued for.
+     * @throws UnauthorizedException If the token is malformed, forged or expired.
+     */
+    public int verify(String token){
+        int signatureStart = token == null ? -1 : token.lastIndexOf('.');
+        int expiryStart = signatureStart <= 0 ? -1 : token.lastIndexOf('.', signatureStart - 1);
+        if(expiryStart <= 0){
+            throw new UnauthorizedException("Malformed session token");
+        }
+
+        String payload = token.substring(0, signatureStart);
+        byte[] signature;
+        try {
+            signature = decoder.decode(token.substring(signatureStart + 1));
+        } catch (IllegalArgumentException e) {
+            throw new UnauthorizedException("Malformed session token");
+        }
+
+        if(!MessageDigest.isEqual(sign(payload), signature)){
+            throw new UnauthorizedException("Invalid session token");
+        }
+
+        // The payload is ours from here on, so it parses
+        int accountId = Integer.parseInt(token, 0, expiryStart, 10);
+        long expiry = Long.parseLong(token, expiryStart + 1, signatureStart, 10);
+        if(System.currentTimeMillis() / 1000 >= expiry){
+            throw new UnauthorizedException("Session token has expired");
+        }
+        return accountId;
+    }
+
+
+    private byte[] sign(String payload){
+        Mac mac = macs.poll();
+        if(mac == null){
+            mac = cloneMac();
+        }
+        // doFinal resets the Mac, so it goes back ready for the next payload
+        byte[] signature = mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        macs.offer(mac);
+        return signature;
+    }
+
+    private Mac cloneMac(){
+        try {
+            synchronized(prototype){
+                return (Mac) prototype.clone();
+            }
+        } catch (CloneNotSupportedException e) {
+            // Only if the provider's Mac can't be cloned
+            return newMac();
+        }
+    }
+
+    private Mac newMac(){
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An LRU cache of PreparedStatements belonging to one physical connection, keyed by SQL text.
+ *
+ * The cache lives as long as the physical connection does, so a statement prepared by one borrower
+ * is reused by the next one and H2 doesn't have to parse and plan the SQL again. Callers get a proxy
+ * whose close() clears the parameters, puts back any fetch size, max rows or query timeout the caller
+ * changed, and leaves the statement in the cache. Statements a borrower never closed are returned the
+ * same way by release() when the connection goes back to the pool.
+ *
+ * A connection is only ever used by one borrower at a time, so the cache itself is not thread safe.
+ */
+public class StatementCache {
+
+    private final Connection connection;
+    private final int capacity;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    /** Statements evicted while in use, closed by release() if their borrower doesn't close them. */
+    private final List<CachedStatement> evictedInUse = new ArrayList<>();
+
+    /**
+     * @param connection The physical connection statements are prepared on.
+     * @param capacity The maximum number of statements kept open.
+     * @param hits Counter incremented when a cached statement is reused.
+     * @param misses Counter incremented when a statement has to be prepared.
+     * @param evictions Counter incremented when the least recently used statement is closed to make room.
+     */
+    public StatementCache(Connection connection, int capacity, LongAdder hits, LongAdder misses, LongAdder evictions){
+        this.connection = connection;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest){
+                if(size() <= StatementCache.this.capacity){
+                    return false;
+                }
+                StatementCache.this.evictions.increment();
+                if(eldest.getValue().inUse){
+                    evictedInUse.add(eldest.getValue());
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+    }
+
+
+    /**
+     * Returns a cached statement for the SQL text, preparing and caching it on a miss.
+     *
+     * @param sql The SQL text, used as the cache key.
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS.
+     * @return A statement whose close() returns it to the cache.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql;
+        CachedStatement cached = statements.get(key);
+
+        if(cached != null && !cached.inUse && !cached.statement.isClosed()){
+            hits.increment();
+            cached.inUse = true;
+            return cached.proxy;
+        }
+
+        misses.increment();
+        PreparedStatement statement = connection.prepareStatement(sql, autoGeneratedKeys);
+
+        if(cached != null && cached.inUse){
+            // The same SQL is already open on this connection, hand out a plain statement
+            return statement;
+        }
+
+        try {
+            cached = new CachedStatement(statement);
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        cached.inUse = true;
+        statements.put(key, cached);
+        return cached.proxy;
+    }
+
+
+    /**
+     * Returns every statement still in use to the cache, as if its borrower had closed it. Called
+     * when the connection goes back to the pool, so a statement left open doesn't stay unusable.
+     */
+    public void release(){
+        for(CachedStatement cached : statements.values()){
+            if(cached.inUse){
+                cached.returnToCache();
+            }
+        }
+        for(CachedStatement cached : evictedInUse){
+            if(cached.inUse){
+                cached.returnToCache();
+            }
+        }
+        evictedInUse.clear();
+    }
+
+
+    /** @return The number of statements currently cached. */
+    public int size(){
+        return statements.size();
+    }
+
+
+    /**
+     * Closes every cached statement.
+     */
+    public void close(){
+        List<CachedStatement> all = new ArrayList<>(statements.values());
+        statements.clear();
+        for(CachedStatement cached : all){
+            cached.evict();
+        }
+    }
+
+
+    /**
+     * A cached statement and the proxy handed out for it.
+     */
+    private static class CachedStatement implements InvocationHandler {
+
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private boolean inUse;
+        private boolean evicted;
+
+        /** The settings as prepared, put back if a borrower changes them. */
+        private final int fetchSize;
+        private final int maxRows;
+        private final int queryTimeout;
+        private boolean settingsChanged;
+        private boolean batched;
+
+        CachedStatement(PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+            this.fetchSize = statement.getFetchSize();
+            this.maxRows = statement.getMaxRows();
+            this.queryTimeout = statement.getQueryTimeout();
+        }
+
+        /**
+         * Closes the statement now, or when its current user closes it.
+         */
+        void evict(){
+            evicted = true;
+            if(!inUse){
+                closeQuietly();
+            }
+        }
+
+        /**
+         * Makes the statement available to the next borrower with the state it was prepared with,
+         * or closes it if it was evicted or can't be reset.
+         */
+        void returnToCache(){
+            inUse = false;
+            if(evicted){
+                closeQuietly();
+                return;
+            }
+            try {
+                statement.clearParameters();
+                if(batched){
+                    statement.clearBatch();
+                    batched = false;
+                }
+                if(settingsChanged){
+                    // Max rows first, H2 rejects a fetch size above it
+                    statement.setMaxRows(maxRows);
+                    statement.setFetchSize(fetchSize);
+                    statement.setQueryTimeout(queryTimeout);
+                    settingsChanged = false;
+                }
+            } catch (SQLException e) {
+                // Closed, so the next prepare() of this SQL replaces it
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly(){
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // The connection is going away or already gone
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if(inUse){
+                        returnToCache();
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + statement + "]";
+                default:
+                    break;
+            }
+
+            if(!inUse){
+                throw new SQLException("Statement has already been closed");
+            }
+
+            switch (method.getName()) {
+                case "setFetchSize":
+                case "setMaxRows":
+                case "setLargeMaxRows":
+                case "setQueryTimeout":
+                    settingsChanged = true;
+                    break;
+                case "addBatch":
+                    batched = true;
+                    break;
+                default:
+                    break;
+            }
+
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
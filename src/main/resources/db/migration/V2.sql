@@ -0,0 +1,2 @@
+-- Index messages by author and time for GET /accounts/{account_id}/messages
+create index if not exists idx_message_posted_by_time on message (posted_by, time_posted_epoch);
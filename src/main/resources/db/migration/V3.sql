@@ -0,0 +1,2 @@
+-- Index messages by time for time-ordered reads, with message_id as the tie breaker
+create index if not exists idx_message_time_id on message (time_posted_epoch, message_id);
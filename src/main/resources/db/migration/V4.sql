@@ -0,0 +1,2 @@
+-- Drop the (time_posted_epoch, message_id) index, which no query reads and every insert maintains
+drop index if exists idx_message_time_id;
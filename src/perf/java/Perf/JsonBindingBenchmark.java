@@ -0,0 +1,183 @@
+package Perf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import Model.Account;
+import Model.Message;
+
+/**
+ * The cost of binding request and response bodies, as ctx.bodyAsClass() and ctx.json() do on every
+ * request, for each way of doing it:
+ *
+ *  default      a plain ObjectMapper, what Javalin uses
+ *  afterburner  ObjectMapper with AfterburnerModule, generated accessors instead of reflection
+ *  blackbird    ObjectMapper with BlackbirdModule, Afterburner's successor built on LambdaMetafactory
+ *  handwritten  StreamingModelCodec, straight on the streaming API with no databind
+ *
+ * Lists hold LIST_SIZE messages. Run with the GC profiler to see the bytes allocated per operation
+ * (gc.alloc.rate.norm) next to the throughput:
+ *
+ *     mvn -Pperf test-compile exec:exec@jmh -Dperf.args="JsonBindingBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonBindingBenchmark {
+
+    private static final int LIST_SIZE = 100;
+
+    @Param({"default", "afterburner", "blackbird", "handwritten"})
+    public String binding;
+
+    private JsonBinding json;
+
+    private Message message;
+    private List<Message> messages;
+    private Account account;
+
+    private byte[] messageJson;
+    private byte[] messagesJson;
+    private byte[] accountJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        switch (binding) {
+            case "default": json = new MapperBinding(new ObjectMapper()); break;
+            case "afterburner": json = new MapperBinding(new ObjectMapper().registerModule(new AfterburnerModule())); break;
+            case "blackbird": json = new MapperBinding(new ObjectMapper().registerModule(new BlackbirdModule())); break;
+            case "handwritten": json = new CodecBinding(new StreamingModelCodec()); break;
+            default: throw new IllegalArgumentException("Unknown binding " + binding);
+        }
+
+        Random random = new Random(42);
+        message = new Message(1, 1, SeededDatabase.text(random), 1669947792L);
+        messages = new ArrayList<>(LIST_SIZE);
+        for(int i = 1; i <= LIST_SIZE; i++){
+            messages.add(new Message(i, 1 + random.nextInt(1000), SeededDatabase.text(random), 1669947792L + i));
+        }
+        account = new Account(1, "testuser1", "password");
+
+        // Every binding reads the same input, as the default mapper writes it
+        ObjectMapper objectMapper = new ObjectMapper();
+        messageJson = objectMapper.writeValueAsBytes(message);
+        messagesJson = objectMapper.writeValueAsBytes(messages);
+        accountJson = objectMapper.writeValueAsBytes(account);
+
+        // A binding that doesn't produce the same JSON and objects isn't a fair comparison
+        if(!Arrays.equals(json.writeMessages(messages), messagesJson)
+                || !Arrays.equals(json.writeAccount(account), accountJson)
+                || !json.readMessages(messagesJson).equals(messages)
+                || !json.readAccount(accountJson).equals(account)){
+            throw new IllegalStateException(binding + " doesn't bind the models like the default ObjectMapper");
+        }
+    }
+
+    @Benchmark
+    public Message readMessage() throws IOException {
+        return json.readMessage(messageJson);
+    }
+
+    @Benchmark
+    public byte[] writeMessage() throws IOException {
+        return json.writeMessage(message);
+    }
+
+    @Benchmark
+    public List<Message> readMessageList() throws IOException {
+        return json.readMessages(messagesJson);
+    }
+
+    @Benchmark
+    public byte[] writeMessageList() throws IOException {
+        return json.writeMessages(messages);
+    }
+
+    @Benchmark
+    public Account readAccount() throws IOException {
+        return json.readAccount(accountJson);
+    }
+
+    @Benchmark
+    public byte[] writeAccount() throws IOException {
+        return json.writeAccount(account);
+    }
+
+
+    /**
+     * One way of binding the models, so every benchmark runs the same code for each binding.
+     */
+    private interface JsonBinding {
+        Message readMessage(byte[] json) throws IOException;
+        List<Message> readMessages(byte[] json) throws IOException;
+        byte[] writeMessage(Message message) throws IOException;
+        byte[] writeMessages(List<Message> messages) throws IOException;
+        Account readAccount(byte[] json) throws IOException;
+        byte[] writeAccount(Account account) throws IOException;
+    }
+
+    /**
+     * Databind through readers and writers resolved once, as a long-lived mapper would have cached them.
+     */
+    private static final class MapperBinding implements JsonBinding {
+        private final ObjectReader messageReader;
+        private final ObjectReader messagesReader;
+        private final ObjectReader accountReader;
+        private final ObjectWriter writer;
+
+        MapperBinding(ObjectMapper objectMapper){
+            this.messageReader = objectMapper.readerFor(Message.class);
+            this.messagesReader = objectMapper.readerFor(new TypeReference<List<Message>>(){});
+            this.accountReader = objectMapper.readerFor(Account.class);
+            this.writer = objectMapper.writer();
+        }
+
+        public Message readMessage(byte[] json) throws IOException { return messageReader.readValue(json); }
+        public List<Message> readMessages(byte[] json) throws IOException { return messagesReader.readValue(json); }
+        public byte[] writeMessage(Message message) throws IOException { return writer.writeValueAsBytes(message); }
+        public byte[] writeMessages(List<Message> messages) throws IOException { return writer.writeValueAsBytes(messages); }
+        public Account readAccount(byte[] json) throws IOException { return accountReader.readValue(json); }
+        public byte[] writeAccount(Account account) throws IOException { return writer.writeValueAsBytes(account); }
+    }
+
+    private static final class CodecBinding implements JsonBinding {
+        private final StreamingModelCodec codec;
+
+        CodecBinding(StreamingModelCodec codec){
+            this.codec = codec;
+        }
+
+        public Message readMessage(byte[] json) throws IOException { return codec.readMessage(json); }
+        public List<Message> readMessages(byte[] json) throws IOException { return codec.readMessages(json); }
+        public byte[] writeMessage(Message message) throws IOException { return codec.writeMessage(message); }
+        public byte[] writeMessages(List<Message> messages) throws IOException { return codec.writeMessages(messages); }
+        public Account readAccount(byte[] json) throws IOException { return codec.readAccount(json); }
+        public byte[] writeAccount(Account account) throws IOException { return codec.writeAccount(account); }
+    }
+}
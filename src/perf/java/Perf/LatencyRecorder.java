@@ -0,0 +1,39 @@
+package Perf;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies in 10 microsecond buckets up to 10 seconds, anything slower lands in the last bucket.
+ * Recording is lock free, so any number of client threads can share one recorder.
+ */
+class LatencyRecorder {
+
+    private static final long BUCKET_NANOS = 10_000;
+    private final AtomicLongArray buckets = new AtomicLongArray(1_000_000);
+
+    void record(long nanos){
+        buckets.incrementAndGet((int) Math.max(0, Math.min(nanos / BUCKET_NANOS, buckets.length() - 1)));
+    }
+
+    /** @return The number of latencies recorded. */
+    long count(){
+        long total = 0;
+        for(int i = 0; i < buckets.length(); i++){
+            total += buckets.get(i);
+        }
+        return total;
+    }
+
+    /** @return The given percentile in microseconds, rounded up to the bucket. */
+    double percentile(double percentile){
+        long rank = (long) Math.ceil(count() * percentile / 100);
+        long seen = 0;
+        for(int i = 0; i < buckets.length(); i++){
+            seen += buckets.get(i);
+            if(seen >= rank && seen > 0){
+                return (i + 1) * BUCKET_NANOS / 1000.0;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,274 @@
+package Perf;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * Drives the whole stack, from SocialMediaController.startAPI() down to H2, with a sustained mix of
+ * requests and prints latency percentiles and throughput per endpoint.
+ *
+ * The load is open-model: requests are started on a fixed schedule of rate per second whatever the
+ * server is doing, and each latency is measured from the time its request was due, not from when it
+ * was actually sent. A server that stalls therefore shows the queue that builds up behind the stall,
+ * instead of the client slowing down with it and hiding it (coordinated omission).
+ *
+ * The database is seeded with 1000 accounts and 10000 messages and the app is started on an
+ * ephemeral port. Messages are deleted only if this run created them, so the seeded ones stay
+ * available to read and patch.
+ *
+ * Arguments, all optional:
+ *  rate      requests per second (default 500)
+ *  seconds   length of the measured run, after a 5 second warm-up at the same rate (default 30)
+ *  mix       weights per operation (default register=2,login=8,create=15,read=40,timeline=20,patch=10,delete=5)
+ *
+ *     mvn -Pperf test-compile exec:exec -Dperf.main=Perf.LoadGenerator -Dperf.args="1000 60"
+ *
+ * The app reads its settings from system properties as usual; pass them with -Dperf.jvmArgs, e.g.
+ * -Dperf.jvmArgs="-Dmessages.groupCommit=true". The client shares the JVM and its CPU with the server.
+ */
+public class LoadGenerator {
+
+    private static final int SEED_ACCOUNTS = 1000;
+    private static final int SEED_MESSAGES = 10_000;
+    private static final long WARMUP_SECONDS = 5;
+    private static final long DRAIN_SECONDS = 30;
+
+    private static final String DEFAULT_MIX = "register=2,login=8,create=15,read=40,timeline=20,patch=10,delete=5";
+
+    /**
+     * The operations in the mix. The first seeded account is 2, the reset script adds account 1.
+     */
+    enum Operation {
+        REGISTER("POST /register"),
+        LOGIN("POST /login"),
+        CREATE("POST /messages"),
+        READ("GET /messages/{id}"),
+        TIMELINE("GET /accounts/{id}/messages"),
+        PATCH("PATCH /messages/{id}"),
+        DELETE("DELETE /messages/{id}");
+
+        final String endpoint;
+
+        Operation(String endpoint){
+            this.endpoint = endpoint;
+        }
+    }
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String baseUrl;
+    private final Operation[] schedule;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    /** Messages created by this run, the only ones DELETE removes. */
+    private final ConcurrentLinkedQueue<Integer> createdMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger registrations = new AtomicInteger();
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    LoadGenerator(String baseUrl, Map<Operation, Integer> mix){
+        this.baseUrl = baseUrl;
+
+        // One slot per unit of weight, so picking an operation is a single random index
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        if(total <= 0){
+            throw new IllegalArgumentException("The mix needs at least one operation with a positive weight");
+        }
+        this.schedule = new Operation[total];
+        int slot = 0;
+        for(Map.Entry<Operation, Integer> entry : mix.entrySet()){
+            for(int i = 0; i < entry.getValue(); i++){
+                schedule[slot++] = entry.getKey();
+            }
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 30;
+        Map<Operation, Integer> mix = parseMix(args.length > 2 ? args[2] : DEFAULT_MIX);
+
+        SeededDatabase.seed(SEED_ACCOUNTS, SEED_MESSAGES);
+        Javalin app = new SocialMediaController().startAPI().start(0);
+
+        try {
+            LoadGenerator generator = new LoadGenerator("http://localhost:" + app.port(), mix);
+            generator.run(rate, TimeUnit.SECONDS.toNanos(WARMUP_SECONDS), new Results());
+
+            Results results = new Results();
+            long elapsedNanos = generator.run(rate, TimeUnit.SECONDS.toNanos(seconds), results);
+            results.print(elapsedNanos);
+        } finally {
+            app.stop();
+        }
+        System.exit(0);
+    }
+
+
+    /**
+     * Starts requests at rate per second for durationNanos, then waits for the stragglers.
+     *
+     * @return How long the run took, until the last response arrived.
+     */
+    long run(int rate, long durationNanos, Results results) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long requests = durationNanos / intervalNanos;
+
+        for(long i = 0; i < requests; i++){
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if(wait > 0){
+                LockSupport.parkNanos(wait);
+            }
+            // If the client fell behind it sends straight away, the latency still counts from due
+            send(schedule[random.nextInt(schedule.length)], due, results);
+        }
+
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+        while(outstanding.get() > 0 && System.nanoTime() - drainDeadline < 0){
+            Thread.sleep(10);
+        }
+        return System.nanoTime() - start;
+    }
+
+
+    private void send(Operation operation, long due, Results results){
+        HttpRequest request = request(operation);
+        outstanding.incrementAndGet();
+
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            long latency = System.nanoTime() - due;
+            boolean failed = error != null || response.statusCode() != 200;
+            if(!failed && operation == Operation.CREATE){
+                rememberCreated(response.body());
+            }
+            results.record(operation, latency, failed);
+            outstanding.decrementAndGet();
+        });
+    }
+
+    private HttpRequest request(Operation operation){
+        int accountId = 2 + random.nextInt(SEED_ACCOUNTS);
+        int messageId = 1 + random.nextInt(SEED_MESSAGES);
+
+        switch (operation) {
+            case REGISTER:
+                return post("/register", "{\"username\":\"load" + registrations.incrementAndGet() + "-" + random.nextInt()
+                        + "\",\"password\":\"" + SeededDatabase.PASSWORD + "\"}");
+            case LOGIN:
+                return post("/login", "{\"username\":\"user" + (accountId - 1) + "\",\"password\":\""
+                        + SeededDatabase.PASSWORD + "\"}");
+            case CREATE:
+                return post("/messages", "{\"posted_by\":" + accountId + ",\"message_text\":\"load test message\","
+                        + "\"time_posted_epoch\":" + System.currentTimeMillis() / 1000 + "}");
+            case READ:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId)).build();
+            case TIMELINE:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/accounts/" + accountId + "/messages")).build();
+            case PATCH:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + messageId))
+                        .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\":\"patched " + random.nextInt(1000) + "\"}"))
+                        .header("Content-Type", "application/json")
+                        .build();
+            case DELETE:
+                // Nothing created yet: delete an id that doesn't exist, which is still a valid request
+                Integer created = createdMessages.poll();
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/messages/" + (created != null ? created : Integer.MAX_VALUE)))
+                        .DELETE().build();
+            default:
+                throw new IllegalStateException("Unknown operation " + operation);
+        }
+    }
+
+    private HttpRequest post(String path, String body){
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+
+    private void rememberCreated(String body){
+        try {
+            JsonNode message = objectMapper.readTree(body);
+            createdMessages.add(message.get("message_id").asInt());
+        } catch (Exception e) {
+            // Only DELETE uses these, it falls back to a missing id
+        }
+    }
+
+    static Map<Operation, Integer> parseMix(String mix){
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for(String part : mix.split(",")){
+            String[] weight = part.trim().split("=");
+            if(weight.length != 2){
+                throw new IllegalArgumentException("Expected operation=weight but got " + part);
+            }
+            weights.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+        return weights;
+    }
+
+
+    /**
+     * Latencies, request and error counts per operation.
+     */
+    static class Results {
+
+        private final Map<Operation, LatencyRecorder> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+        Results(){
+            for(Operation operation : Operation.values()){
+                latencies.put(operation, new LatencyRecorder());
+                errors.put(operation, new LongAdder());
+            }
+        }
+
+        void record(Operation operation, long latencyNanos, boolean failed){
+            latencies.get(operation).record(latencyNanos);
+            if(failed){
+                errors.get(operation).increment();
+            }
+        }
+
+        void print(long elapsedNanos){
+            double seconds = elapsedNanos / 1e9;
+            long totalRequests = 0;
+            long totalErrors = 0;
+
+            System.out.printf("%-28s %9s %7s %9s %9s %9s %9s %9s%n",
+                    "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms");
+            for(Operation operation : Operation.values()){
+                LatencyRecorder latency = latencies.get(operation);
+                long requests = latency.count();
+                if(requests == 0){
+                    continue;
+                }
+                long failed = errors.get(operation).sum();
+                totalRequests += requests;
+                totalErrors += failed;
+                System.out.printf("%-28s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", operation.endpoint, requests, failed,
+                        requests / seconds, latency.percentile(50) / 1000.0, latency.percentile(90) / 1000.0,
+                        latency.percentile(99) / 1000.0, latency.percentile(99.9) / 1000.0);
+            }
+            System.out.printf("%-28s %9d %7d %9.1f%n", "total", totalRequests, totalErrors, totalRequests / seconds);
+        }
+    }
+}
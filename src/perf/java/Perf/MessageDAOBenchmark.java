@@ -0,0 +1,73 @@
+package Perf;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.Message;
+
+/**
+ * The MessageDAO queries behind the message endpoints, against a table of messageCount seeded
+ * messages spread over 1000 accounts. Nothing is cached here, every call is a round trip to H2.
+ *
+ * createMessage adds rows as it runs, so the table ends a little larger than messageCount.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageDAOBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int messageCount;
+
+    private MessageDAO messageDAO;
+    private int nextId;
+    private int nextAccount;
+
+    @Setup
+    public void setUp(){
+        SeededDatabase.seed(ACCOUNTS, messageCount);
+        messageDAO = new MessageDAO();
+    }
+
+    @Benchmark
+    public Message getMessageById(){
+        // Walk the seeded ids so every call reads a different row
+        nextId = nextId % messageCount + 1;
+        return messageDAO.getMessageById(nextId);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages(){
+        return messageDAO.getAllMessages();
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByUserId(){
+        nextAccount = nextAccount % ACCOUNTS + 1;
+        return messageDAO.getMessagesByUserId(nextAccount);
+    }
+
+    @Benchmark
+    public Message createMessage(){
+        nextAccount = nextAccount % ACCOUNTS + 1;
+        return messageDAO.createMessage(new Message(nextAccount, "benchmark message", 1669947792L));
+    }
+}
@@ -0,0 +1,80 @@
+package Perf;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Message;
+import Service.MessageJsonCache;
+import io.javalin.json.JavalinJackson;
+
+/**
+ * What it costs to turn a list of messages into a response body: through Javalin's JSON mapper as
+ * ctx.json() does, or by joining the bytes MessageJsonCache keeps for each message.
+ *
+ * The cache is warmed in setup, so cachedBytes is the steady state of a polled list.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageJsonBenchmark {
+
+    private static final Type MESSAGE_LIST = new TypeReference<List<Message>>(){}.getType();
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int messageCount;
+
+    private List<Message> messages;
+    private JavalinJackson javalinJackson;
+    private MessageJsonCache jsonCache;
+
+    @Setup
+    public void setUp(){
+        Random random = new Random(42);
+        messages = new ArrayList<>(messageCount);
+        for(int i = 1; i <= messageCount; i++){
+            StringBuilder text = new StringBuilder();
+            int length = 20 + random.nextInt(120);
+            while(text.length() < length){
+                text.append("word").append(random.nextInt(1000)).append(' ');
+            }
+            messages.add(new Message(i, 1 + random.nextInt(1000), text.toString().trim(), 1669947792L + i));
+        }
+
+        javalinJackson = new JavalinJackson();
+        jsonCache = new MessageJsonCache(new ObjectMapper(), 2 * messageCount, 1, TimeUnit.HOURS);
+        jsonCache.toJsonArray(messages);
+    }
+
+    @Benchmark
+    public byte[] ctxJson(){
+        // ctx.json() maps to a String, and result(String) then encodes it
+        return javalinJackson.toJsonString(messages, MESSAGE_LIST).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] cachedBytes(){
+        return jsonCache.toJsonArray(messages);
+    }
+}
@@ -0,0 +1,126 @@
+package Perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Service.MessageSearchIndex;
+
+/**
+ * Query latency of MessageSearchIndex with messageCount messages of SeededDatabase text, built in
+ * memory without H2 so 10M messages fit in a run. Each message has about ten words out of a 1000 word
+ * vocabulary, so one term matches about 1% of messages and each extra AND term cuts that a hundredfold.
+ *
+ * The queries measured are one page of 50 for one term, two terms and three terms, a page deep into
+ * the results, and a term that matches nothing. updateMessage re-indexes one message, the write every
+ * PATCH /messages/{message_id} adds. The 10M case needs a few GB of heap.
+ *
+ * Reading the page's rows from H2 isn't included, MessageSearchServiceBenchmark times that.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class MessageSearchBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+    private static final int QUERIES = 64;
+
+    @Param({"1000000", "10000000"})
+    public int messageCount;
+
+    private MessageSearchIndex index;
+    private List<Set<String>> oneTerm;
+    private List<Set<String>> twoTerms;
+    private List<Set<String>> threeTerms;
+    private Set<String> missing;
+    private int next;
+    private int nextUpdate;
+    private String[] texts;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        index = new MessageSearchIndex();
+        Random random = new Random(42);
+        for(int id = 1; id <= messageCount; id++){
+            index.add(id, SeededDatabase.text(random));
+        }
+
+        oneTerm = new ArrayList<>(QUERIES);
+        twoTerms = new ArrayList<>(QUERIES);
+        threeTerms = new ArrayList<>(QUERIES);
+        for(int i = 0; i < QUERIES; i++){
+            int a = random.nextInt(1000);
+            int b = random.nextInt(1000);
+            int c = random.nextInt(1000);
+            oneTerm.add(MessageSearchIndex.terms("word" + a));
+            twoTerms.add(MessageSearchIndex.terms("word" + a + " word" + b));
+            threeTerms.add(MessageSearchIndex.terms("word" + a + " word" + b + " word" + c));
+        }
+        missing = MessageSearchIndex.terms("nonexistent");
+
+        // Alternating texts for updateMessage, so every update changes some terms
+        texts = new String[]{SeededDatabase.text(random), SeededDatabase.text(random)};
+        index.add(messageCount + 1, texts[0]);
+    }
+
+    private int nextQuery(){
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+
+    @Benchmark
+    public int[] oneTerm(){
+        return index.search(oneTerm.get(nextQuery()), true, 0, PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public int[] twoTermAnd(){
+        return index.search(twoTerms.get(nextQuery()), true, 0, PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public int[] threeTermAnd(){
+        return index.search(threeTerms.get(nextQuery()), true, 0, PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public int[] oneTermDeepPage(){
+        // Start halfway through the ids, as a client would after following many cursors
+        return index.search(oneTerm.get(nextQuery()), true, messageCount / 2, PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public int[] oneTermBackwards(){
+        return index.search(oneTerm.get(nextQuery()), false, messageCount, PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public int[] missingTerm(){
+        return index.search(missing, true, 0, PAGE_SIZE + 1);
+    }
+
+    @Benchmark
+    public void updateMessage(){
+        int from = nextUpdate;
+        nextUpdate ^= 1;
+        index.update(messageCount + 1, texts[from], texts[nextUpdate]);
+    }
+}
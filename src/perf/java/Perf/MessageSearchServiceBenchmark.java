@@ -0,0 +1,95 @@
+package Perf;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.MessagePage;
+import Service.MessageService;
+import Util.PageCursor;
+
+/**
+ * GET /messages/search end to end below the controller: MessageService.searchMessages against a
+ * seeded database of messageCount messages, so each call is the index lookup plus the
+ * getMessagesByIds read of the page's rows from H2 and the re-check of their text. Compare with
+ * MessageSearchBenchmark, which times the in-memory index alone at larger sizes.
+ *
+ * The queries are the same shapes: one page of 50 for one term, two terms, a page deep into the
+ * results, and a term that matches nothing, which never reaches the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageSearchServiceBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+    private static final int PAGE_SIZE = 50;
+    private static final int QUERIES = 64;
+
+    @Param({"100000", "1000000"})
+    public int messageCount;
+
+    private MessageService messageService;
+    private String[] oneTerm;
+    private String[] twoTerms;
+    private PageCursor deepCursor;
+    private int next;
+
+    @Setup
+    public void setUp(){
+        SeededDatabase.seed(ACCOUNTS, messageCount);
+        messageService = new MessageService(new MessageDAO());
+        messageService.buildSearchIndex();
+
+        Random random = new Random(7);
+        oneTerm = new String[QUERIES];
+        twoTerms = new String[QUERIES];
+        for(int i = 0; i < QUERIES; i++){
+            int a = random.nextInt(1000);
+            int b = random.nextInt(1000);
+            oneTerm[i] = "word" + a;
+            twoTerms[i] = "word" + a + " word" + b;
+        }
+        deepCursor = PageCursor.after(messageCount / 2);
+    }
+
+    private int nextQuery(){
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+
+    @Benchmark
+    public MessagePage oneTerm(){
+        return messageService.searchMessages(oneTerm[nextQuery()], PAGE_SIZE, null);
+    }
+
+    @Benchmark
+    public MessagePage twoTermAnd(){
+        return messageService.searchMessages(twoTerms[nextQuery()], PAGE_SIZE, null);
+    }
+
+    @Benchmark
+    public MessagePage oneTermDeepPage(){
+        return messageService.searchMessages(oneTerm[nextQuery()], PAGE_SIZE, deepCursor);
+    }
+
+    @Benchmark
+    public MessagePage missingTerm(){
+        return messageService.searchMessages("nonexistent", PAGE_SIZE, null);
+    }
+}
@@ -0,0 +1,84 @@
+package Perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import DAO.MessageDAO;
+import DAO.UserDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+
+/**
+ * Resets the H2 database and fills it with the same accounts and messages on every run, so benchmark
+ * results from different runs are comparable. Only a database named by the db.url system property is
+ * ever reset, never the application's default one, see the perf profile in pom.xml.
+ *
+ * Accounts are named user1..userN with the password "password". Messages are spread across them
+ * at random from a fixed seed, with text between 20 and 140 characters.
+ */
+public final class SeededDatabase {
+
+    public static final String PASSWORD = "password";
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private SeededDatabase(){
+    }
+
+    /**
+     * Resets the database to the one account and one message of the reset script.
+     *
+     * @throws IllegalStateException If db.url isn't set, so the reset would wipe the application's data.
+     */
+    public static void reset(){
+        if(System.getProperty("db.url") == null){
+            throw new IllegalStateException("Benchmarks reset the database, run them with -Ddb.url set to one of their own");
+        }
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * @param accounts How many accounts to create, on top of the one the reset script adds.
+     * @param messages How many messages to create, on top of the one the reset script adds.
+     */
+    public static void seed(int accounts, int messages){
+        reset();
+
+        UserDAO userDAO = new UserDAO();
+        int firstAccountId = Integer.MAX_VALUE;
+        int lastAccountId = 0;
+        for(int i = 1; i <= accounts; i++){
+            int accountId = userDAO.registerUser("user" + i, PASSWORD).getAccount_id();
+            firstAccountId = Math.min(firstAccountId, accountId);
+            lastAccountId = Math.max(lastAccountId, accountId);
+        }
+
+        MessageDAO messageDAO = new MessageDAO();
+        Random random = new Random(42);
+        List<Message> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for(int i = 0; i < messages; i++){
+            int postedBy = firstAccountId + random.nextInt(lastAccountId - firstAccountId + 1);
+            batch.add(new Message(postedBy, text(random), 1669947792L + i));
+            if(batch.size() == INSERT_BATCH_SIZE){
+                messageDAO.createMessages(batch);
+                batch.clear();
+            }
+        }
+        if(!batch.isEmpty()){
+            messageDAO.createMessages(batch);
+        }
+    }
+
+    /**
+     * @return Message text of 20 to 140 characters.
+     */
+    public static String text(Random random){
+        StringBuilder text = new StringBuilder();
+        int length = 20 + random.nextInt(120);
+        while(text.length() < length){
+            text.append("word").append(random.nextInt(1000)).append(' ');
+        }
+        return text.toString().trim();
+    }
+}
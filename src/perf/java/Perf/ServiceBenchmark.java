@@ -0,0 +1,98 @@
+package Perf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import DAO.UserDAO;
+import Model.Account;
+import Model.Message;
+import Service.MessageService;
+import Service.UserService;
+
+/**
+ * Logins and the requests MessageService turns away, against a seeded database of 1000 accounts
+ * and 10000 messages.
+ *
+ * The reject benchmarks return the exception so it isn't optimised away. All of them except
+ * rejectMissingUser fail before the database is reached; that one is refused by the foreign key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServiceBenchmark {
+
+    private static final String LONG_TEXT = "x".repeat(256);
+
+    private UserDAO userDAO;
+    private UserService userService;
+    private MessageService messageService;
+
+    @Setup
+    public void setUp(){
+        SeededDatabase.seed(1000, 10_000);
+        userDAO = new UserDAO();
+        userService = new UserService(new UserDAO());
+        messageService = new MessageService(new MessageDAO());
+    }
+
+    @Benchmark
+    public Account validateLogin(){
+        return userDAO.validateLogin("user500", SeededDatabase.PASSWORD);
+    }
+
+    @Benchmark
+    public Account login(){
+        return userService.login("user500", SeededDatabase.PASSWORD);
+    }
+
+    @Benchmark
+    public Object rejectBlankMessage(){
+        return createMessage(new Message(1, "   ", 1669947792L));
+    }
+
+    @Benchmark
+    public Object rejectLongMessage(){
+        return createMessage(new Message(1, LONG_TEXT, 1669947792L));
+    }
+
+    @Benchmark
+    public Object rejectBadTimestamp(){
+        return createMessage(new Message(1, "benchmark message", 0));
+    }
+
+    @Benchmark
+    public Object rejectMissingUser(){
+        return createMessage(new Message(Integer.MAX_VALUE, "benchmark message", 1669947792L));
+    }
+
+    @Benchmark
+    public Object rejectBlankUpdate(){
+        try {
+            return messageService.updateMessageTextById(1, "");
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+
+    private Object createMessage(Message message){
+        try {
+            return messageService.createMessage(message);
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+}
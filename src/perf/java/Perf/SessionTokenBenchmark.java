@@ -0,0 +1,60 @@
+package Perf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.UserDAO;
+import Model.Account;
+import Util.SessionTokenSigner;
+
+/**
+ * What it costs to authenticate a request with a session token, compared with checking the
+ * username and password against the account table as POST /login does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionTokenBenchmark {
+
+    private SessionTokenSigner signer;
+    private UserDAO userDAO;
+    private String token;
+
+    @Setup
+    public void setUp(){
+        SeededDatabase.reset();
+        userDAO = new UserDAO();
+        signer = new SessionTokenSigner(new byte[32], 3600);
+
+        Account account = userDAO.validateLogin("testuser1", "password");
+        token = signer.issue(account.getAccount_id());
+    }
+
+    @Benchmark
+    public int verifyToken(){
+        return signer.verify(token);
+    }
+
+    @Benchmark
+    public String issueToken(){
+        return signer.issue(1);
+    }
+
+    @Benchmark
+    public Account validateLogin(){
+        return userDAO.validateLogin("testuser1", "password");
+    }
+}
@@ -0,0 +1,132 @@
+package Perf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import Model.Account;
+import Model.Message;
+
+/**
+ * Hand-written JSON binding for Message and Account on Jackson's streaming API, with no databind or
+ * reflection. It writes the same fields in the same order as ObjectMapper, and like ctx.bodyAsClass()
+ * it ignores unknown fields and leaves missing ones at their defaults. Output goes through the factory's
+ * recycled buffers, the same way ObjectMapper.writeValueAsBytes() does.
+ */
+public class StreamingModelCodec {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public Message readMessage(byte[] json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            return readMessage(parser);
+        }
+    }
+
+    public List<Message> readMessages(byte[] json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY);
+            List<Message> messages = new ArrayList<>();
+            while(parser.nextToken() == JsonToken.START_OBJECT){
+                messages.add(readMessage(parser));
+            }
+            expect(parser.currentToken(), JsonToken.END_ARRAY);
+            return messages;
+        }
+    }
+
+    public byte[] writeMessage(Message message) throws IOException {
+        ByteArrayBuilder bytes = new ByteArrayBuilder(jsonFactory._getBufferRecycler());
+        try (JsonGenerator generator = jsonFactory.createGenerator(bytes)) {
+            writeMessage(generator, message);
+        }
+        byte[] json = bytes.toByteArray();
+        bytes.release();
+        return json;
+    }
+
+    public byte[] writeMessages(List<Message> messages) throws IOException {
+        ByteArrayBuilder bytes = new ByteArrayBuilder(jsonFactory._getBufferRecycler());
+        try (JsonGenerator generator = jsonFactory.createGenerator(bytes)) {
+            generator.writeStartArray();
+            for(Message message : messages){
+                writeMessage(generator, message);
+            }
+            generator.writeEndArray();
+        }
+        byte[] json = bytes.toByteArray();
+        bytes.release();
+        return json;
+    }
+
+    public Account readAccount(byte[] json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            Account account = new Account();
+            while(parser.nextToken() == JsonToken.FIELD_NAME){
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "account_id": account.setAccount_id(parser.getIntValue()); break;
+                    case "username": account.setUsername(parser.getValueAsString()); break;
+                    case "password": account.setPassword(parser.getValueAsString()); break;
+                    default: parser.skipChildren();
+                }
+            }
+            return account;
+        }
+    }
+
+    public byte[] writeAccount(Account account) throws IOException {
+        ByteArrayBuilder bytes = new ByteArrayBuilder(jsonFactory._getBufferRecycler());
+        try (JsonGenerator generator = jsonFactory.createGenerator(bytes)) {
+            generator.writeStartObject();
+            generator.writeNumberField("account_id", account.getAccount_id());
+            generator.writeStringField("username", account.getUsername());
+            generator.writeStringField("password", account.getPassword());
+            generator.writeEndObject();
+        }
+        byte[] json = bytes.toByteArray();
+        bytes.release();
+        return json;
+    }
+
+
+    private static Message readMessage(JsonParser parser) throws IOException {
+        Message message = new Message();
+        while(parser.nextToken() == JsonToken.FIELD_NAME){
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "message_id": message.setMessage_id(parser.getIntValue()); break;
+                case "posted_by": message.setPosted_by(parser.getIntValue()); break;
+                case "message_text": message.setMessage_text(parser.getValueAsString()); break;
+                case "time_posted_epoch": message.setTime_posted_epoch(parser.getLongValue()); break;
+                default: parser.skipChildren();
+            }
+        }
+        return message;
+    }
+
+    private static void writeMessage(JsonGenerator generator, Message message) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("message_id", message.getMessage_id());
+        generator.writeNumberField("posted_by", message.getPosted_by());
+        generator.writeStringField("message_text", message.getMessage_text());
+        generator.writeNumberField("time_posted_epoch", message.getTime_posted_epoch());
+        generator.writeEndObject();
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if(actual != expected){
+            throw new IOException("Expected " + expected + " but found " + actual);
+        }
+    }
+}
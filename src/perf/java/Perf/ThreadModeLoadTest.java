@@ -0,0 +1,174 @@
+package Perf;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import io.javalin.Javalin;
+
+/**
+ * Compares the default platform thread pool with -Dserver.virtualThreads=true under a closed-model load.
+ *
+ * For each thread mode and each concurrency level, the app is started on an ephemeral port and that many
+ * clients each keep exactly one request in flight for the measured period. Throughput and latency
+ * percentiles are printed per run.
+ *
+ * Arguments, all optional: levels (comma separated, default 1000,5000,10000), seconds per run (default 10)
+ * and the path to request (default /messages?limit=50).
+ *
+ * The client runs in the same JVM as the server, so both share the CPU. High levels need a raised open
+ * file limit (ulimit -n). Virtual threads need a Java 21 runtime, on older ones that run falls back to
+ * platform threads and says so.
+ */
+public class ThreadModeLoadTest {
+
+    private static final int SEED_MESSAGES = 1000;
+    private static final long WARMUP_SECONDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int[] levels = parseLevels(args.length > 0 ? args[0] : "1000,5000,10000");
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        String path = args.length > 2 ? args[2] : "/messages?limit=50";
+
+        seed();
+
+        System.out.printf("%-9s %7s %10s %8s %10s %9s %9s%n", "mode", "conns", "requests", "errors", "req/s", "p50 ms", "p99 ms");
+        for(boolean virtual : new boolean[]{false, true}){
+            for(int connections : levels){
+                Result result = run(virtual, connections, seconds, path);
+                System.out.printf("%-9s %7d %10d %8d %10.0f %9.2f %9.2f%n", result.mode, connections, result.requests,
+                        result.errors, result.requests / (double) seconds, result.latency.percentile(50) / 1000.0,
+                        result.latency.percentile(99) / 1000.0);
+            }
+        }
+        System.exit(0);
+    }
+
+
+    private static Result run(boolean virtual, int connections, long seconds, String path) throws InterruptedException {
+        System.setProperty("server.virtualThreads", Boolean.toString(virtual));
+        SocialMediaController controller = new SocialMediaController();
+        Javalin app = controller.startAPI().start(0);
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + path)).build();
+
+        try {
+            // Warm up the JIT and open the connections, then measure
+            drive(client, request, connections, TimeUnit.SECONDS.toNanos(WARMUP_SECONDS), new LatencyRecorder(), new LongAdder());
+
+            LatencyRecorder latency = new LatencyRecorder();
+            LongAdder errors = new LongAdder();
+            long requests = drive(client, request, connections, TimeUnit.SECONDS.toNanos(seconds), latency, errors);
+
+            String mode = controller.isUsingVirtualThreads() ? "virtual" : (virtual ? "fallback" : "platform");
+            return new Result(mode, requests, errors.sum(), latency);
+        } finally {
+            app.stop();
+        }
+    }
+
+
+    /**
+     * Runs connections clients, each sending its next request as soon as the previous one completes.
+     * @return The number of requests completed.
+     */
+    private static long drive(HttpClient client, HttpRequest request, int connections, long durationNanos,
+                              LatencyRecorder latency, LongAdder errors) throws InterruptedException {
+        long deadline = System.nanoTime() + durationNanos;
+        CountDownLatch done = new CountDownLatch(connections);
+        LongAdder completed = new LongAdder();
+
+        for(int i = 0; i < connections; i++){
+            new ClientLoop(client, request, deadline, latency, errors, completed, done).next();
+        }
+        done.await();
+        return completed.sum();
+    }
+
+
+    private static void seed(){
+        SeededDatabase.reset();
+        List<Message> messages = new ArrayList<>();
+        for(int i = 0; i < SEED_MESSAGES; i++){
+            messages.add(new Message(1, "load test message " + i, 1669947792L + i));
+        }
+        new MessageDAO().createMessages(messages);
+    }
+
+    private static int[] parseLevels(String levels){
+        String[] parts = levels.split(",");
+        int[] parsed = new int[parts.length];
+        for(int i = 0; i < parts.length; i++){
+            parsed[i] = Integer.parseInt(parts[i].trim());
+        }
+        return parsed;
+    }
+
+
+    /**
+     * One client: sends a request, records it when the response arrives and sends the next until the deadline.
+     */
+    private static class ClientLoop {
+
+        private final HttpClient client;
+        private final HttpRequest request;
+        private final long deadline;
+        private final LatencyRecorder latency;
+        private final LongAdder errors;
+        private final LongAdder completed;
+        private final CountDownLatch done;
+
+        ClientLoop(HttpClient client, HttpRequest request, long deadline, LatencyRecorder latency,
+                   LongAdder errors, LongAdder completed, CountDownLatch done){
+            this.client = client;
+            this.request = request;
+            this.deadline = deadline;
+            this.latency = latency;
+            this.errors = errors;
+            this.completed = completed;
+            this.done = done;
+        }
+
+        void next(){
+            long start = System.nanoTime();
+            if(start - deadline >= 0){
+                done.countDown();
+                return;
+            }
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                latency.record(System.nanoTime() - start);
+                completed.increment();
+                if(error != null || response.statusCode() != 200){
+                    errors.increment();
+                }
+                next();
+            });
+        }
+    }
+
+
+    private static class Result {
+
+        private final String mode;
+        private final long requests;
+        private final long errors;
+        private final LatencyRecorder latency;
+
+        Result(String mode, long requests, long errors, LatencyRecorder latency){
+            this.mode = mode;
+            this.requests = requests;
+            this.errors = errors;
+            this.latency = latency;
+        }
+    }
+}
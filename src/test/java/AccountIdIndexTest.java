@@ -0,0 +1,83 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountIdIndex;
+import DAO.MessageDAO;
+import DAO.UserDAO;
+import Model.Account;
+import Util.ConnectionUtil;
+
+public class AccountIdIndexTest {
+    AccountIdIndex accountIndex;
+    MessageDAO messageDAO;
+    UserDAO userDAO;
+
+    /**
+     * Before every test, reset the database and load a fresh index that may reconcile every 50ms.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        accountIndex = new AccountIdIndex(50);
+        accountIndex.load();
+        messageDAO = new MessageDAO(accountIndex);
+        userDAO = new UserDAO(accountIndex);
+    }
+
+    /**
+     * Accounts loaded at startup and registered afterwards should both be found.
+     */
+    @Test
+    public void loadedAndRegisteredAccountsExist() {
+        Assert.assertTrue(messageDAO.doesUserExist(1));
+        Assert.assertFalse(messageDAO.doesUserExist(0));
+        Assert.assertFalse(messageDAO.doesUserExist(-1));
+
+        Account account = userDAO.registerUser("indexed", "password");
+        long reconciles = accountIndex.getReconcileCount();
+
+        Assert.assertTrue(messageDAO.doesUserExist(account.getAccount_id()));
+        Assert.assertEquals(reconciles, accountIndex.getReconcileCount());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1, account.getAccount_id())),
+                messageDAO.findExistingUsers(Arrays.asList(1, account.getAccount_id(), 500)));
+    }
+
+    /**
+     * Missing ids should not be looked up in the database more than once per reconcile interval.
+     */
+    @Test
+    public void missingIdsAreReconciledAtMostOncePerInterval() throws InterruptedException {
+        Thread.sleep(60);
+        long reconciles = accountIndex.getReconcileCount();
+
+        for(int i = 0; i < 1000; i++){
+            Assert.assertFalse(messageDAO.doesUserExist(1000 + i));
+        }
+
+        Assert.assertEquals(reconciles + 1, accountIndex.getReconcileCount());
+    }
+
+    /**
+     * An account inserted without going through UserDAO should be found once the interval has passed.
+     */
+    @Test
+    public void accountsInsertedOutOfBandAreReconciled() throws SQLException, InterruptedException {
+        try (Connection connection = ConnectionUtil.getConnection();
+            Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO account (username, password) VALUES ('outofband', 'password')");
+        }
+
+        Thread.sleep(60);
+        Assert.assertTrue(messageDAO.doesUserExist(2));
+        Assert.assertEquals(Collections.singleton(2), messageDAO.findExistingUsers(Collections.singleton(2)));
+        Assert.assertEquals(2, accountIndex.getMaxId());
+    }
+}
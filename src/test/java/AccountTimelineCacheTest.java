@@ -0,0 +1,140 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountTimelineCache;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+public class AccountTimelineCacheTest {
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database and create a service with empty caches.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageService = new MessageService(new MessageDAO());
+    }
+
+    /**
+     * Creates, updates and deletes should be applied to a cached timeline without reloading it.
+     */
+    @Test
+    public void writesPatchTheCachedTimeline() {
+        AccountTimelineCache cache = messageService.getTimelineCache();
+        Assert.assertEquals(1, messageService.getMessagesByUserId(1).size());
+
+        Message earlier = messageService.createMessage(new Message(1, "earlier", 1));
+        Message later = messageService.createMessage(new Message(1, "later", 1669947792 + 100));
+        Assert.assertEquals(Arrays.asList(earlier, new Message(1, 1, "test message 1", 1669947792), later),
+                messageService.getMessagesByUserId(1));
+
+        messageService.updateMessageTextById(1, "edited");
+        Assert.assertEquals("edited", messageService.getMessagesByUserId(1).get(1).getMessage_text());
+
+        messageService.deleteMessageByID(earlier.getMessage_id());
+        List<Message> timeline = messageService.getMessagesByUserId(1);
+        Assert.assertEquals(Arrays.asList(new Message(1, 1, "edited", 1669947792), later), timeline);
+
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(new MessageDAO().getMessagesByUserId(1), timeline);
+    }
+
+    /**
+     * An edit that reaches a new message before its create has patched the caches should not be
+     * undone when the create does.
+     */
+    @Test
+    public void editRacingCreateIsKept() {
+        MessageService service = serviceWritingNewMessages(false);
+        service.getMessagesByUserId(1);
+
+        Message created = service.createMessage(new Message(1, "original", 1669947792 + 1));
+
+        List<Message> timeline = service.getMessagesByUserId(1);
+        Assert.assertEquals(new Message(created.getMessage_id(), 1, "edited first", 1669947792 + 1), timeline.get(1));
+        Assert.assertEquals(new MessageDAO().getMessagesByUserId(1), timeline);
+        Assert.assertTrue(service.searchMessages("original", 10, null).getMessages().isEmpty());
+    }
+
+    /**
+     * A delete that reaches a new message before its create has patched the caches should not be
+     * undone when the create does.
+     */
+    @Test
+    public void deleteRacingCreateIsKept() {
+        MessageService service = serviceWritingNewMessages(true);
+        service.getMessagesByUserId(1);
+
+        service.createMessage(new Message(1, "original", 1669947792 + 1));
+
+        List<Message> timeline = service.getMessagesByUserId(1);
+        Assert.assertEquals(Arrays.asList(new Message(1, 1, "test message 1", 1669947792)), timeline);
+        Assert.assertTrue(service.searchMessages("original", 10, null).getMessages().isEmpty());
+    }
+
+
+    /**
+     * The least recently read accounts should be dropped once the memory budget is exceeded.
+     */
+    @Test
+    public void coldAccountsAreEvicted() {
+        // Room for roughly three one-message timelines
+        AccountTimelineCache cache = new AccountTimelineCache(400);
+        AtomicInteger loads = new AtomicInteger();
+
+        for(int accountId = 1; accountId <= 3; accountId++){
+            cache.get(accountId, id -> load(loads, id));
+        }
+        cache.get(1, id -> load(loads, id));
+        cache.get(4, id -> load(loads, id));
+
+        Assert.assertEquals(4, loads.get());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertTrue(cache.getEstimatedBytes() <= 400);
+
+        // Account 1 was read recently, account 2 was the coldest
+        cache.get(1, id -> load(loads, id));
+        Assert.assertEquals(4, loads.get());
+        cache.get(2, id -> load(loads, id));
+        Assert.assertEquals(5, loads.get());
+    }
+
+
+    /**
+     * @return A service whose creates are followed, before it patches its caches, by an edit or a
+     *         delete of the new message.
+     */
+    private static MessageService serviceWritingNewMessages(boolean delete){
+        MessageService[] service = new MessageService[1];
+        service[0] = new MessageService(new MessageDAO(){
+            @Override
+            public Message createMessage(Message message){
+                Message created = super.createMessage(message);
+                if(delete){
+                    service[0].deleteMessageByID(created.getMessage_id());
+                } else {
+                    service[0].updateMessageTextById(created.getMessage_id(), "edited first");
+                }
+                return created;
+            }
+        });
+        return service[0];
+    }
+
+    private static List<Message> load(AtomicInteger loads, int accountId){
+        loads.incrementAndGet();
+        List<Message> messages = new ArrayList<>();
+        messages.add(new Message(accountId, accountId, "message " + accountId, 1669947792));
+        return messages;
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConcurrentEditMessageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+    ExecutorService executor;
+
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 20;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        executor = Executors.newFixedThreadPool(THREADS);
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        app.stop();
+    }
+
+    /**
+     * Sending parallel PATCH requests to the same message_id
+     *
+     * Expected Response:
+     *  Every PATCH returns 200 with its own text, and the stored text is one of the texts that was written
+     */
+    @Test
+    public void parallelUpdatesAreNotLost() throws Exception {
+        for(int round = 0; round < ROUNDS; round++){
+            int messageId = createMessage("round " + round);
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<HttpResponse<String>>> patches = new ArrayList<>();
+            for(int i = 0; i < THREADS; i++){
+                String text = "update " + round + "-" + i;
+                patches.add(executor.submit(startingAt(start, () -> patch(messageId, text))));
+            }
+            start.countDown();
+
+            Set<String> written = new HashSet<>();
+            for(int i = 0; i < THREADS; i++){
+                HttpResponse<String> response = patches.get(i).get();
+                Assert.assertEquals(200, response.statusCode());
+                Message updated = objectMapper.readValue(response.body(), Message.class);
+                Assert.assertEquals(messageId, updated.getMessage_id());
+                Assert.assertEquals(1, updated.getPosted_by());
+                Assert.assertEquals("update " + round + "-" + i, updated.getMessage_text());
+                written.add(updated.getMessage_text());
+            }
+
+            Message stored = objectMapper.readValue(get(messageId).body(), Message.class);
+            Assert.assertTrue(stored.getMessage_text(), written.contains(stored.getMessage_text()));
+        }
+    }
+
+    /**
+     * Sending parallel PATCH and DELETE requests to the same message_id
+     *
+     * Expected Response:
+     *  Exactly one DELETE returns the message, the others return an empty body. The deleted text is
+     *  the original or one a successful PATCH wrote, and PATCHes that lose the race return 400.
+     */
+    @Test
+    public void parallelUpdatesAndDeletesHaveNoPhantoms() throws Exception {
+        for(int round = 0; round < ROUNDS; round++){
+            int messageId = createMessage("round " + round);
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<HttpResponse<String>>> patches = new ArrayList<>();
+            List<Future<HttpResponse<String>>> deletes = new ArrayList<>();
+            for(int i = 0; i < THREADS / 2; i++){
+                String text = "update " + round + "-" + i;
+                patches.add(executor.submit(startingAt(start, () -> patch(messageId, text))));
+                deletes.add(executor.submit(startingAt(start, () -> delete(messageId))));
+            }
+            start.countDown();
+
+            Set<String> written = new HashSet<>();
+            written.add("round " + round);
+            for(Future<HttpResponse<String>> future : patches){
+                HttpResponse<String> response = future.get();
+                if(response.statusCode() == 200){
+                    written.add(objectMapper.readValue(response.body(), Message.class).getMessage_text());
+                } else {
+                    Assert.assertEquals(400, response.statusCode());
+                }
+            }
+
+            int deleted = 0;
+            for(Future<HttpResponse<String>> future : deletes){
+                HttpResponse<String> response = future.get();
+                Assert.assertEquals(200, response.statusCode());
+                if(!response.body().isEmpty()){
+                    deleted++;
+                    Message message = objectMapper.readValue(response.body(), Message.class);
+                    Assert.assertEquals(messageId, message.getMessage_id());
+                    Assert.assertTrue(message.getMessage_text(), written.contains(message.getMessage_text()));
+                }
+            }
+            Assert.assertEquals(1, deleted);
+            Assert.assertEquals("", get(messageId).body());
+        }
+    }
+
+
+    private <T> Callable<T> startingAt(CountDownLatch start, Callable<T> task){
+        return () -> {
+            start.await();
+            return task.call();
+        };
+    }
+
+    private int createMessage(String text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"" + text
+                        + "\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class).getMessage_id();
+    }
+
+    private HttpResponse<String> patch(int messageId, String text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"" + text + "\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> delete(int messageId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .DELETE()
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(int messageId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
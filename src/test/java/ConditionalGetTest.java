@@ -0,0 +1,126 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and start the app with -Dserver.compression.minBytes=1,
+     * so even the small test responses are compressed when the client accepts it.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("server.compression.minBytes", "1");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("server.compression.minBytes");
+    }
+
+    /**
+     * GET /messages should answer a matching If-None-Match with 304 until a message is written.
+     */
+    @Test
+    public void allMessagesNotModifiedUntilAWrite() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages", null);
+        String etag = first.headers().firstValue("ETag").orElse(null);
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertNotNull(etag);
+
+        HttpResponse<String> unchanged = get("/messages", etag);
+        Assert.assertEquals(304, unchanged.statusCode());
+        Assert.assertEquals("", unchanged.body());
+
+        postMessage(1, "a new message");
+
+        HttpResponse<String> changed = get("/messages", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").orElse(null));
+        Assert.assertTrue(changed.body().contains("a new message"));
+    }
+
+    /**
+     * GET /accounts/{account_id}/messages should only change version when that account's messages do.
+     */
+    @Test
+    public void accountMessagesVersionedPerAccount() throws IOException, InterruptedException {
+        HttpRequest register = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"user2\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(register, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        String account1 = get("/accounts/1/messages", null).headers().firstValue("ETag").orElse(null);
+        String account2 = get("/accounts/2/messages", null).headers().firstValue("ETag").orElse(null);
+
+        postMessage(1, "only account 1 wrote");
+
+        Assert.assertEquals(200, get("/accounts/1/messages", account1).statusCode());
+        Assert.assertEquals(304, get("/accounts/2/messages", account2).statusCode());
+    }
+
+    /**
+     * A client that accepts gzip should get the body gzipped, one that doesn't should get it as is.
+     */
+    @Test
+    public void responsesAreGzippedWhenAccepted() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .header("Accept-Encoding", "gzip")
+                .build();
+        HttpResponse<byte[]> gzipped = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        Assert.assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(null));
+        String body;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.body()))) {
+            body = new String(in.readAllBytes());
+        }
+        Assert.assertEquals(get("/messages", null).body(), body);
+        Assert.assertFalse(get("/messages", null).headers().firstValue("Content-Encoding").isPresent());
+    }
+
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if(ifNoneMatch != null){
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void postMessage(int postedBy, String text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + postedBy + ", "
+                        + "\"message_text\": \"" + text + "\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
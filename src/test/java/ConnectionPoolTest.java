@@ -0,0 +1,217 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    /**
+     * Before every test, create a small pool over a private in-memory database so the counts are
+     * not affected by the shared pool in ConnectionUtil.
+     */
+    @Before
+    public void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        pool = new ConnectionPool(dataSource, 2, 3, 200, 0, 1, 2);
+        pool.warmUp();
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * Warm up should open minSize connections and leave them idle.
+     */
+    @Test
+    public void warmUpOpensMinimumConnections() {
+        Assert.assertEquals(2, pool.getIdleCount());
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(2, pool.getTotalCount());
+    }
+
+    /**
+     * Closing a borrowed connection should return it to the pool instead of opening a new one.
+     */
+    @Test
+    public void closedConnectionIsReused() throws SQLException {
+        Connection first = pool.getConnection();
+        Assert.assertEquals(1, pool.getActiveCount());
+        first.close();
+        Assert.assertTrue(first.isClosed());
+
+        try (Connection second = pool.getConnection()) {
+            Assert.assertTrue(second.isValid(1));
+        }
+        Assert.assertEquals(2, pool.getTotalCount());
+        Assert.assertEquals(0, pool.getActiveCount());
+    }
+
+    /**
+     * Borrowing more than maxSize connections should fail once the acquire timeout elapses.
+     */
+    @Test
+    public void acquireTimesOutWhenExhausted() throws SQLException {
+        Connection a = pool.getConnection();
+        Connection b = pool.getConnection();
+        Connection c = pool.getConnection();
+        try {
+            pool.getConnection();
+            Assert.fail("Expected the pool to time out");
+        } catch (SQLException e) {
+            Assert.assertEquals(3, pool.getActiveCount());
+        } finally {
+            a.close();
+            b.close();
+            c.close();
+        }
+        Assert.assertEquals(0, pool.getWaitingCount());
+        Assert.assertEquals(3, pool.getIdleCount());
+    }
+
+    /**
+     * Uncommitted work left on a returned connection should be rolled back.
+     */
+    @Test
+    public void returnedConnectionIsRolledBack() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            connection.createStatement().execute("create table if not exists t (id int)");
+            connection.setAutoCommit(false);
+            connection.createStatement().execute("insert into t values (1)");
+        }
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertTrue(connection.getAutoCommit());
+            try (ResultSet resultSet = connection.createStatement().executeQuery("select count(*) from t")) {
+                resultSet.next();
+                Assert.assertEquals(0, resultSet.getInt(1));
+            }
+        }
+    }
+
+    /**
+     * Preparing the same SQL on a returned connection should be answered from the statement cache,
+     * and the least recently used statement should be evicted once the cache is full.
+     */
+    @Test
+    public void preparedStatementsAreCached() throws SQLException {
+        String sql = "select ? from dual";
+        try (Connection connection = pool.getConnection();
+            PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, 1);
+            statement.executeQuery().close();
+        }
+        Assert.assertEquals(0, pool.getStatementCacheHits());
+        Assert.assertEquals(1, pool.getStatementCacheMisses());
+
+        try (Connection connection = pool.getConnection();
+            PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, 2);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                Assert.assertEquals(2, resultSet.getInt(1));
+            }
+        }
+        Assert.assertEquals(1, pool.getStatementCacheHits());
+
+        try (Connection connection = pool.getConnection()) {
+            connection.prepareStatement("select 2 from dual").close();
+            connection.prepareStatement("select 3 from dual").close();
+        }
+        Assert.assertEquals(1, pool.getStatementCacheEvictions());
+    }
+
+    /**
+     * A statement the borrower never closed should go back to the cache with the connection, with
+     * the settings it was prepared with, and the leaked handle should no longer be usable.
+     */
+    @Test
+    public void unclosedStatementIsReturnedWithConnection() throws SQLException {
+        String sql = "select x from system_range(1, 10)";
+        int defaultFetchSize;
+        PreparedStatement leaked;
+        try (Connection connection = pool.getConnection()) {
+            leaked = connection.prepareStatement(sql);
+            defaultFetchSize = leaked.getFetchSize();
+            leaked.setFetchSize(defaultFetchSize + 100);
+            leaked.setMaxRows(1);
+            leaked.executeQuery();
+        }
+
+        try (Connection connection = pool.getConnection();
+            PreparedStatement statement = connection.prepareStatement(sql)) {
+            Assert.assertEquals(1, pool.getStatementCacheHits());
+            Assert.assertEquals(defaultFetchSize, statement.getFetchSize());
+            Assert.assertEquals(0, statement.getMaxRows());
+            int rows = 0;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows++;
+                }
+            }
+            Assert.assertEquals(10, rows);
+        }
+
+        try {
+            leaked.executeQuery();
+            Assert.fail("The leaked statement should be closed");
+        } catch (SQLException expected) {
+        }
+    }
+
+    /**
+     * A connection returned moments ago should be handed out again without the isValid() round
+     * trip, one that has been idle longer than the threshold should be validated.
+     */
+    @Test
+    public void onlyLongIdleConnectionsAreValidated() throws Exception {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        h2.setUser("sa");
+        h2.setPassword("sa");
+        AtomicInteger validations = new AtomicInteger();
+        DataSource counting = (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                new Class<?>[]{DataSource.class}, (dataSourceProxy, dataSourceMethod, dataSourceArgs) -> {
+                    Connection connection = h2.getConnection();
+                    return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                            new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                                if(method.getName().equals("isValid")){
+                                    validations.incrementAndGet();
+                                }
+                                try {
+                                    return method.invoke(connection, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                            });
+                });
+
+        try (ConnectionPool idlePool = new ConnectionPool(counting, 1, 1, 200, 0, 1, 200, 2, null)) {
+            idlePool.warmUp();
+            idlePool.getConnection().close();
+            idlePool.getConnection().close();
+            Assert.assertEquals(0, validations.get());
+
+            Thread.sleep(300);
+            idlePool.getConnection().close();
+            Assert.assertEquals(1, validations.get());
+        }
+    }
+}
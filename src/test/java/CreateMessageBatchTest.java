@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.BatchItemResult;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CreateMessageBatchTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with valid and invalid messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: one result per item in request order, valid items created with consecutive message_ids
+     */
+    @Test
+    public void createMessageBatchMixedItems() throws IOException, InterruptedException {
+        HttpResponse<String> response = postBatch("[" +
+                "{\"posted_by\":1, \"message_text\": \"first\", \"time_posted_epoch\": 1669947792}," +
+                "{\"posted_by\":1, \"message_text\": \"\", \"time_posted_epoch\": 1669947792}," +
+                "{\"posted_by\":3, \"message_text\": \"no such user\", \"time_posted_epoch\": 1669947792}," +
+                "{\"posted_by\":1, \"message_text\": \"second\", \"time_posted_epoch\": 1669947793}" +
+                "]");
+
+        Assert.assertEquals(200, response.statusCode());
+        List<BatchItemResult> results = objectMapper.readValue(response.body(), new TypeReference<List<BatchItemResult>>(){});
+        Assert.assertEquals(4, results.size());
+
+        Assert.assertEquals(BatchItemResult.created(0, new Message(2, 1, "first", 1669947792)), results.get(0));
+        Assert.assertEquals(400, results.get(1).getStatus());
+        Assert.assertEquals(1, results.get(1).getIndex());
+        Assert.assertNull(results.get(1).getMessage());
+        Assert.assertEquals(400, results.get(2).getStatus());
+        Assert.assertEquals("The user does not exist", results.get(2).getError());
+        Assert.assertEquals(BatchItemResult.created(3, new Message(3, 1, "second", 1669947793)), results.get(3));
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        List<Message> allMessages = objectMapper.readValue(webClient.send(getRequest, HttpResponse.BodyHandlers.ofString()).body(),
+                new TypeReference<List<Message>>(){});
+        Assert.assertEquals(3, allMessages.size());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with an empty array
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: an empty list
+     */
+    @Test
+    public void createMessageBatchEmpty() throws IOException, InterruptedException {
+        HttpResponse<String> response = postBatch("[]");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("[]", response.body());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with more than the maximum number of messages
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body:
+     */
+    @Test
+    public void createMessageBatchTooLarge() throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder("[");
+        for(int i = 0; i < 1001; i++){
+            if(i > 0){
+                body.append(',');
+            }
+            body.append("{\"posted_by\":1, \"message_text\": \"m\", \"time_posted_epoch\": 1669947792}");
+        }
+        body.append(']');
+
+        HttpResponse<String> response = postBatch(body.toString());
+
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+
+    private HttpResponse<String> postBatch(String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.GroupCommitMessageWriter;
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.PrometheusText;
+
+public class GroupCommitMessageWriterTest {
+    MessageDAO messageDAO;
+    GroupCommitMessageWriter writer;
+    ExecutorService executor;
+
+    private static final int WRITERS = 32;
+
+    /**
+     * Before every test, reset the database and start a writer that waits up to 20ms to fill a batch.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+        writer = new GroupCommitMessageWriter(messageDAO, 1024, 256, 20_000);
+        executor = Executors.newFixedThreadPool(WRITERS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        writer.close();
+    }
+
+    /**
+     * Concurrent writes should all be committed, with unique ids, in fewer batches than writes.
+     */
+    @Test
+    public void concurrentWritesAreCommittedInBatches() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Message>> futures = new ArrayList<>();
+        for(int i = 0; i < WRITERS; i++){
+            Message message = new Message(1, "group " + i, 1669947792 + i);
+            futures.add(executor.submit(() -> {
+                start.await();
+                return writer.write(message);
+            }));
+        }
+        start.countDown();
+
+        Set<Integer> ids = new HashSet<>();
+        for(int i = 0; i < WRITERS; i++){
+            Message created = futures.get(i).get();
+            Assert.assertEquals("group " + i, created.getMessage_text());
+            Assert.assertEquals(created, messageDAO.getMessageById(created.getMessage_id()));
+            ids.add(created.getMessage_id());
+        }
+
+        Assert.assertEquals(WRITERS, ids.size());
+        Assert.assertEquals(WRITERS, writer.getRowsFlushed());
+        Assert.assertTrue(writer.getStats(), writer.getFlushCount() < WRITERS);
+        Assert.assertEquals(0, writer.getQueueDepth());
+    }
+
+    /**
+     * A write for a user that doesn't exist should fail on its own without failing the rest of its batch.
+     */
+    @Test
+    public void missingUserFailsOnlyItsOwnWrite() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        Future<Message> good = executor.submit(() -> {
+            start.await();
+            return writer.write(new Message(1, "good", 1669947792));
+        });
+        Future<Message> bad = executor.submit(() -> {
+            start.await();
+            return writer.write(new Message(404, "bad", 1669947792));
+        });
+        start.countDown();
+
+        Assert.assertEquals("good", good.get().getMessage_text());
+        try {
+            bad.get();
+            Assert.fail("Expected the write for a missing user to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        Assert.assertEquals(2, messageDAO.getAllMessages().size());
+    }
+
+    /**
+     * Writes racing close() should each either be written or fail, none should be left waiting.
+     */
+    @Test
+    public void writesRacingCloseAllComplete() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Message>> futures = new ArrayList<>();
+        for(int i = 0; i < WRITERS; i++){
+            Message message = new Message(1, "closing " + i, 1669947792 + i);
+            futures.add(executor.submit(() -> {
+                start.await();
+                return writer.write(message);
+            }));
+        }
+        start.countDown();
+        writer.close();
+
+        int written = 0;
+        for(Future<Message> future : futures){
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                written++;
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        Assert.assertEquals(written + 1, messageDAO.getAllMessages().size());
+        Assert.assertTrue(writer.submit(new Message(1, "late", 1669947792)).isCompletedExceptionally());
+    }
+
+    /**
+     * The metrics should include the flush latency and a batch size histogram that counts every flush.
+     */
+    @Test
+    public void flushLatencyAndBatchSizeAreExported() throws Exception {
+        writer.write(new Message(1, "first", 1669947792));
+        writer.write(new Message(1, "second", 1669947793));
+
+        PrometheusText prometheus = new PrometheusText();
+        writer.writeTo(prometheus);
+        String text = prometheus.toString();
+
+        Assert.assertEquals(2, writer.getFlushHistogram().getCount());
+        Assert.assertTrue(text, text.contains("messages_group_commit_flush_duration_seconds_count{} 2"));
+        Assert.assertTrue(text, text.contains("messages_group_commit_flush_duration_max_seconds "));
+        Assert.assertTrue(text, text.contains("messages_group_commit_batch_size_bucket{le=\"1\"} 2"));
+        Assert.assertTrue(text, text.contains("messages_group_commit_batch_size_bucket{le=\"256\"} 2"));
+        Assert.assertFalse(text, text.contains("le=\"512\""));
+        Assert.assertTrue(text, text.contains("messages_group_commit_batch_size_sum 2"));
+    }
+}
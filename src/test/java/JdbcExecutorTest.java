@@ -0,0 +1,170 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AsyncMessageService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import Util.JdbcExecutor;
+
+public class JdbcExecutorTest {
+    JdbcExecutor jdbcExecutor;
+    CountDownLatch release;
+
+    /**
+     * Before every test, reset the database and create an executor with one thread, a one-slot queue
+     * and a 200ms timeout.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        jdbcExecutor = new JdbcExecutor(1, 1, 200);
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        jdbcExecutor.close();
+    }
+
+    /**
+     * Results and exceptions of the service should come back through the future.
+     */
+    @Test
+    public void serviceCallsCompleteThroughTheFuture() throws Exception {
+        AsyncMessageService service = new AsyncMessageService(new MessageService(new MessageDAO()), jdbcExecutor);
+
+        Assert.assertEquals("test message 1", service.getMessageById(1).get(1, TimeUnit.SECONDS).getMessage_text());
+        try {
+            service.createMessage(new Message(1, "", 1669947792)).get(1, TimeUnit.SECONDS);
+            Assert.fail("Expected a blank message to be rejected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    /**
+     * A call that waits too long should time out, and one that timed out while queued should never run.
+     */
+    @Test
+    public void queuedCallsTimeOutWithoutRunning() throws Exception {
+        jdbcExecutor.supply(this::blockUntilReleased);
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<Integer> queued = jdbcExecutor.supply(() -> {
+            ran.set(true);
+            return 2;
+        });
+
+        assertFailsWith(TimeoutException.class, queued);
+        release.countDown();
+
+        jdbcExecutor.supply(() -> 3).get(1, TimeUnit.SECONDS);
+        Assert.assertFalse(ran.get());
+        Assert.assertEquals(1, jdbcExecutor.getSkippedCount());
+        Assert.assertTrue(jdbcExecutor.getTimedOutCount() >= 1);
+    }
+
+    /**
+     * A call cancelled while queued should never run.
+     */
+    @Test
+    public void cancelledCallsDontRun() throws Exception {
+        jdbcExecutor.supply(this::blockUntilReleased);
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<Integer> queued = jdbcExecutor.supply(() -> {
+            ran.set(true);
+            return 2;
+        });
+
+        queued.cancel(true);
+        release.countDown();
+
+        jdbcExecutor.supply(() -> 3).get(1, TimeUnit.SECONDS);
+        Assert.assertFalse(ran.get());
+    }
+
+    /**
+     * Once the thread is busy and the queue is full, further calls should be rejected straight away.
+     */
+    @Test
+    public void fullQueueRejects() throws Exception {
+        jdbcExecutor.supply(this::blockUntilReleased);
+        jdbcExecutor.supply(() -> 2);
+
+        assertFailsWith(RejectedExecutionException.class, jdbcExecutor.supply(() -> 3));
+        Assert.assertEquals(1, jdbcExecutor.getRejectedCount());
+    }
+
+    /**
+     * A write that has started should be waited for past the timeout, and one still queued when the
+     * timeout passes should never run.
+     */
+    @Test
+    public void writesOnlyTimeOutWhileQueued() throws Exception {
+        CompletableFuture<Integer> running = jdbcExecutor.supplyWrite(this::blockUntilReleased);
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<Integer> queued = jdbcExecutor.supplyWrite(() -> {
+            ran.set(true);
+            return 2;
+        });
+
+        assertFailsWith(TimeoutException.class, queued);
+        Assert.assertFalse(running.isDone());
+        release.countDown();
+
+        Assert.assertEquals(1, (int) running.get(1, TimeUnit.SECONDS));
+        jdbcExecutor.supply(() -> 3).get(1, TimeUnit.SECONDS);
+        Assert.assertFalse(ran.get());
+    }
+
+    /**
+     * Reads the service's caches can answer should complete without going through the executor.
+     */
+    @Test
+    public void cachedReadsSkipTheQueue() throws Exception {
+        AsyncMessageService service = new AsyncMessageService(new MessageService(new MessageDAO()), jdbcExecutor);
+        service.getMessageById(1).get(1, TimeUnit.SECONDS);
+        service.getMessagesByUserId(1).get(1, TimeUnit.SECONDS);
+
+        // Busy thread and full queue, so anything submitted now is rejected
+        jdbcExecutor.supply(this::blockUntilReleased);
+        jdbcExecutor.supply(() -> 2);
+
+        Assert.assertEquals("test message 1", service.getMessageById(1).get(1, TimeUnit.SECONDS).getMessage_text());
+        Assert.assertEquals(1, service.getMessagesByUserId(1).get(1, TimeUnit.SECONDS).size());
+        assertFailsWith(RejectedExecutionException.class, service.getMessageById(2));
+    }
+
+
+    private int blockUntilReleased(){
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
+    }
+
+    private static void assertFailsWith(Class<? extends Throwable> expected, CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            Assert.fail("Expected " + expected.getSimpleName());
+        } catch (ExecutionException e) {
+            Assert.assertTrue(String.valueOf(e.getCause()), expected.isInstance(e.getCause()));
+        } catch (TimeoutException e) {
+            Assert.fail("The future never completed");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import Util.FrequencyCache;
+
+public class MessageCacheTest {
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database and create a service with an empty cache.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageService = new MessageService(new MessageDAO());
+    }
+
+    /**
+     * Repeated lookups of the same id, present or missing, should only reach the loader once.
+     */
+    @Test
+    public void hitsAndMissingKeysAreCached() {
+        FrequencyCache<Integer, String> cache = new FrequencyCache<>(10, 1, TimeUnit.MINUTES);
+        AtomicInteger loads = new AtomicInteger();
+
+        for(int i = 0; i < 5; i++){
+            Assert.assertEquals("one", cache.get(1, k -> { loads.incrementAndGet(); return "one"; }));
+            Assert.assertNull(cache.get(2, k -> { loads.incrementAndGet(); return null; }));
+        }
+
+        Assert.assertEquals(2, loads.get());
+        Assert.assertEquals(8, cache.getHitCount());
+        Assert.assertEquals(0.8, cache.getHitRatio(), 0.0001);
+    }
+
+    /**
+     * Entries should be reloaded once their time to live has passed.
+     */
+    @Test
+    public void expiredEntriesAreReloaded() throws InterruptedException {
+        FrequencyCache<Integer, String> cache = new FrequencyCache<>(10, 20, TimeUnit.MILLISECONDS);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(1, k -> "v" + loads.incrementAndGet());
+        Thread.sleep(50);
+
+        Assert.assertEquals("v2", cache.get(1, k -> "v" + loads.incrementAndGet()));
+    }
+
+    /**
+     * When the cache is full, a frequently used key should survive a scan of keys used only once.
+     */
+    @Test
+    public void frequentKeysSurviveScans() {
+        FrequencyCache<Integer, Integer> cache = new FrequencyCache<>(100, 1, TimeUnit.MINUTES);
+        AtomicInteger hotLoads = new AtomicInteger();
+
+        for(int i = 0; i < 10; i++){
+            cache.get(-1, k -> hotLoads.incrementAndGet());
+        }
+        for(int i = 0; i < 900; i++){
+            cache.get(i, k -> k);
+        }
+        cache.get(-1, k -> hotLoads.incrementAndGet());
+
+        Assert.assertEquals(1, hotLoads.get());
+        Assert.assertTrue(cache.size() <= 100);
+        Assert.assertTrue(cache.getStats(), cache.getEvictionCount() + cache.getRejectionCount() > 0);
+    }
+
+    /**
+     * A load that was in flight when the key was invalidated must not put its stale value in the cache.
+     */
+    @Test
+    public void loadRacingInvalidateIsNotCached() throws Exception {
+        FrequencyCache<Integer, String> cache = new FrequencyCache<>(10, 1, TimeUnit.MINUTES);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+
+        Thread reader = new Thread(() -> cache.get(1, k -> {
+            loading.countDown();
+            try {
+                invalidated.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "stale";
+        }));
+        reader.start();
+
+        loading.await();
+        cache.invalidate(1);
+        invalidated.countDown();
+        reader.join();
+
+        Assert.assertEquals("fresh", cache.get(1, k -> "fresh"));
+    }
+
+    /**
+     * Updates, deletes and creates through the service should never leave a stale entry behind.
+     */
+    @Test
+    public void serviceWritesInvalidateTheCache() {
+        Assert.assertEquals("test message 1", messageService.getMessageById(1).getMessage_text());
+        Assert.assertNull(messageService.getMessageById(2));
+
+        messageService.updateMessageTextById(1, "updated");
+        Assert.assertEquals("updated", messageService.getMessageById(1).getMessage_text());
+
+        Message created = messageService.createMessage(new Message(1, "new", 1669947792));
+        Assert.assertEquals(2, created.getMessage_id());
+        Assert.assertEquals(created, messageService.getMessageById(2));
+
+        messageService.deleteMessageByID(1);
+        Assert.assertNull(messageService.getMessageById(1));
+    }
+}
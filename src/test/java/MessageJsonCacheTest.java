@@ -0,0 +1,89 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Model.MessagePage;
+import Service.MessageJsonCache;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+public class MessageJsonCacheTest {
+    ObjectMapper objectMapper;
+    MessageJsonCache jsonCache;
+
+    /**
+     * Before every test, create an empty cache and the mapper its output is compared with.
+     */
+    @Before
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        jsonCache = new MessageJsonCache(objectMapper, 100, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Lists and pages built from cached bytes should be exactly what Jackson writes for them.
+     */
+    @Test
+    public void outputMatchesJackson() throws Exception {
+        List<Message> messages = Arrays.asList(
+                new Message(1, 1, "test message 1", 1669947792),
+                new Message(2, 1, "quotes \" and \\ and \u00e9\u6f22 \ud83d\ude00", 1669947793));
+
+        for(int i = 0; i < 2; i++){
+            Assert.assertArrayEquals(objectMapper.writeValueAsBytes(messages), jsonCache.toJsonArray(messages));
+        }
+        Assert.assertArrayEquals(objectMapper.writeValueAsBytes(Collections.emptyList()),
+                jsonCache.toJsonArray(Collections.emptyList()));
+
+        MessagePage lastPage = new MessagePage(messages, null);
+        MessagePage page = new MessagePage(messages, "abc");
+        Assert.assertArrayEquals(objectMapper.writeValueAsBytes(lastPage), jsonCache.toJson(lastPage));
+        Assert.assertArrayEquals(objectMapper.writeValueAsBytes(page), jsonCache.toJson(page));
+    }
+
+    /**
+     * A message with the same id but different fields should never be given the cached bytes, and an
+     * update through MessageService should show up in the JSON straight away.
+     */
+    @Test
+    public void editedMessagesAreReserialized() throws Exception {
+        Message original = new Message(1, 1, "before", 1669947792);
+        Message edited = new Message(1, 1, "after", 1669947792);
+        jsonCache.toJson(original);
+
+        Assert.assertArrayEquals(objectMapper.writeValueAsBytes(edited), jsonCache.toJson(edited));
+
+        ConnectionUtil.resetTestDatabase();
+        MessageService messageService = new MessageService(new MessageDAO());
+        MessageJsonCache serviceCache = messageService.getJsonCache();
+        serviceCache.toJsonArray(messageService.getAllMessages());
+
+        messageService.updateMessageTextById(1, "updated");
+
+        Assert.assertEquals(0, serviceCache.getEntries().size());
+        Assert.assertTrue(new String(serviceCache.toJsonArray(messageService.getAllMessages())).contains("updated"));
+    }
+
+    /**
+     * MessageService should serialize with the mapper it is given, so a configured web mapper and the
+     * cache agree.
+     */
+    @Test
+    public void serviceUsesTheGivenMapper() throws Exception {
+        ObjectMapper configured = new ObjectMapper().setPropertyNamingStrategy(PropertyNamingStrategies.UPPER_CAMEL_CASE);
+        MessageService messageService = new MessageService(new MessageDAO(), null, configured);
+        List<Message> messages = Collections.singletonList(new Message(1, 1, "test message 1", 1669947792));
+
+        Assert.assertArrayEquals(configured.writeValueAsBytes(messages), messageService.getJsonCache().toJsonArray(messages));
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import io.javalin.Javalin;
+
+public class MetricsEndpointTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * GET /metrics should count requests per route pattern and status, and report the JVM, the
+     * connection pool and the caches.
+     */
+    @Test
+    public void metricsCountRequestsPerRouteAndStatus() throws IOException, InterruptedException {
+        get("/messages/1");
+        get("/messages/1");
+        get("/messages/abc");
+        get("/no-such-route");
+
+        HttpResponse<String> response = get("/metrics");
+        String metrics = response.body();
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+        Assert.assertTrue(metrics, metrics.contains(
+                "http_server_request_duration_seconds_count{method=\"GET\",route=\"/messages/{message_id}\",status=\"200\"} 2\n"));
+        Assert.assertTrue(metrics, metrics.contains(
+                "http_server_request_duration_seconds_count{method=\"GET\",route=\"/messages/{message_id}\",status=\"500\"} 1\n"));
+        Assert.assertTrue(metrics, metrics.contains(
+                "http_server_request_duration_seconds_count{method=\"GET\",route=\"unmatched\",status=\"404\"} 1\n"));
+        Assert.assertTrue(metrics, metrics.contains(
+                "http_server_request_duration_seconds_bucket{method=\"GET\",route=\"/messages/{message_id}\",status=\"200\",le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(metrics, metrics.contains("http_server_requests_in_flight 1\n"));
+        Assert.assertTrue(metrics, metrics.contains("# TYPE jvm_memory_heap_used_bytes gauge\n"));
+        Assert.assertTrue(metrics, metrics.contains("db_pool_connections_max "));
+        Assert.assertTrue(metrics, metrics.contains("cache_hits_total{cache=\"messages\"} 1\n"));
+        Assert.assertTrue(metrics, metrics.contains("# TYPE db_query_duration_seconds histogram\n"));
+        Assert.assertTrue(metrics, metrics.contains(",phase=\"execute\"} "));
+    }
+
+    /**
+     * Quantiles should be within the histogram's 3% precision, at any scale.
+     */
+    @Test
+    public void histogramQuantilesAreWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long value = 1; value <= 10_000; value++){
+            histogram.record(value * 1000);
+        }
+
+        Assert.assertEquals(10_000, histogram.getCount());
+        Assert.assertEquals(5_000_000, histogram.getValueAtQuantile(0.5), 5_000_000 * 0.03);
+        Assert.assertEquals(9_900_000, histogram.getValueAtQuantile(0.99), 9_900_000 * 0.03);
+        Assert.assertEquals(9_990_000, histogram.getValueAtQuantile(0.999), 9_990_000 * 0.03);
+        Assert.assertEquals(5_000, histogram.getCountAtOrBelow(5_000_000), 5_000 * 0.03);
+    }
+
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,135 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+import Util.QueryMetrics;
+
+public class QueryMetricsTest {
+    static final String INSERT = "INSERT INTO secrets (owner, secret) VALUES (?, ?)";
+    static final String SELECT = "SELECT secret FROM secrets WHERE owner = ?";
+
+    JdbcDataSource dataSource;
+    ConnectionPool pool;
+    QueryMetrics queryMetrics;
+
+    /**
+     * Before every test, create the table in a private in-memory database and a pool over it with
+     * the slow query log disabled.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:querymetricstest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS secrets");
+            statement.execute("CREATE TABLE secrets (owner INT, secret VARCHAR(255))");
+        }
+        startPool(-1);
+    }
+
+    /**
+     * Replaces the pool with one whose executions slower than slowQueryMillis are logged.
+     */
+    void startPool(long slowQueryMillis) {
+        if(pool != null){
+            pool.close();
+        }
+        queryMetrics = new QueryMetrics(slowQueryMillis, 256);
+        pool = new ConnectionPool(dataSource, 1, 2, 200, 0, 1, 4, queryMetrics);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * Each execution should be timed per SQL text, with the rows it read and the acquire time of
+     * the connection charged to the first statement prepared on it.
+     */
+    @Test
+    public void executionsAreTimedPerStatement() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            for(int owner = 1; owner <= 3; owner++){
+                try (PreparedStatement insert = connection.prepareStatement(INSERT)) {
+                    insert.setInt(1, owner % 2);
+                    insert.setString(2, "hunter" + owner);
+                    insert.executeUpdate();
+                }
+            }
+        }
+        try (Connection connection = pool.getConnection();
+             PreparedStatement select = connection.prepareStatement(SELECT)) {
+            select.setInt(1, 1);
+            ResultSet results = select.executeQuery();
+            while(results.next()){
+                Assert.assertTrue(results.getString("secret").startsWith("hunter"));
+            }
+        }
+
+        QueryMetrics.StatementStats inserts = queryMetrics.getStats(INSERT);
+        Assert.assertEquals(3, inserts.getExecute().getCount());
+        Assert.assertEquals(1, inserts.getAcquire().getCount());
+        Assert.assertEquals(0, inserts.getFetch().getCount());
+
+        QueryMetrics.StatementStats selects = queryMetrics.getStats(SELECT);
+        Assert.assertEquals(1, selects.getExecute().getCount());
+        Assert.assertEquals(1, selects.getAcquire().getCount());
+        Assert.assertEquals(1, selects.getFetch().getCount());
+        Assert.assertEquals(2, selects.getRows());
+        Assert.assertEquals(2, queryMetrics.getAcquireHistogram().getCount());
+    }
+
+    /**
+     * The slow query log should show the shape of the bind parameters and never their values.
+     */
+    @Test
+    public void slowQueryLogShowsParameterShapesNotValues() throws SQLException {
+        // A threshold of 0 logs every execution
+        startPool(0);
+        try (Connection connection = pool.getConnection();
+             PreparedStatement insert = connection.prepareStatement(INSERT)) {
+            insert.setInt(1, 7);
+            insert.setString(2, "correct horse");
+            insert.executeUpdate();
+        }
+
+        List<String> slow = queryMetrics.getRecentSlowQueries();
+        Assert.assertEquals(1, queryMetrics.getSlowQueryCount());
+        Assert.assertEquals(1, slow.size());
+        Assert.assertTrue(slow.get(0), slow.get(0).contains(INSERT + " with parameters [Int, String(13)]"));
+        Assert.assertFalse(slow.get(0), slow.get(0).contains("horse"));
+    }
+
+    /**
+     * A statement that fails should still be timed, and counted as an error.
+     */
+    @Test
+    public void failedExecutionsAreCounted() throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement insert = connection.prepareStatement(INSERT)) {
+            insert.setString(1, "not a number");
+            insert.setString(2, "secret");
+            insert.executeUpdate();
+            Assert.fail("Expected the insert to fail");
+        } catch (SQLException expected) {
+            // The owner column is an INT
+        }
+
+        Assert.assertEquals(1, queryMetrics.getStats(INSERT).getErrors());
+        Assert.assertEquals(1, queryMetrics.getStats(INSERT).getExecute().getCount());
+    }
+}
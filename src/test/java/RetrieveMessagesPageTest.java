@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Model.MessagePage;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RetrieveMessagesPageTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add four more messages so there are five in total,
+     * restart the Javalin app, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, SQLException {
+        ConnectionUtil.resetTestDatabase();
+        insertMessages(4);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=2 and following next_cursor
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: pages of 2, 2 and 1 messages in message_id order, the last without a next_cursor
+     */
+    @Test
+    public void getMessagesPageFollowsCursor() throws IOException, InterruptedException {
+        MessagePage first = getPage("limit=2");
+        Assert.assertEquals(ids(1, 2), messageIds(first));
+        Assert.assertNotNull(first.getNext_cursor());
+
+        MessagePage second = getPage("limit=2&cursor=" + first.getNext_cursor());
+        Assert.assertEquals(ids(3, 4), messageIds(second));
+        Assert.assertNotNull(second.getNext_cursor());
+
+        MessagePage last = getPage("limit=2&cursor=" + second.getNext_cursor());
+        Assert.assertEquals(ids(5), messageIds(last));
+        Assert.assertNull(last.getNext_cursor());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=2&after_id=1
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 2 and 3
+     */
+    @Test
+    public void getMessagesPageAfterId() throws IOException, InterruptedException {
+        MessagePage page = getPage("limit=2&after_id=1");
+        Assert.assertEquals(ids(2, 3), messageIds(page));
+        Assert.assertEquals(new Message(2, 1, "paged message 2", 1669947800), page.getMessages().get(0));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?limit=2&before_id=5 and following next_cursor
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 3 and 4, then 1 and 2, each page in ascending order
+     */
+    @Test
+    public void getMessagesPageBeforeId() throws IOException, InterruptedException {
+        MessagePage page = getPage("limit=2&before_id=5");
+        Assert.assertEquals(ids(3, 4), messageIds(page));
+
+        MessagePage previous = getPage("limit=2&cursor=" + page.getNext_cursor());
+        Assert.assertEquals(ids(1, 2), messageIds(previous));
+        Assert.assertNull(previous.getNext_cursor());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages with an invalid limit or cursor
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void getMessagesPageInvalidParameters() throws IOException, InterruptedException {
+        Assert.assertEquals(400, send("limit=0").statusCode());
+        Assert.assertEquals(400, send("limit=abc").statusCode());
+        Assert.assertEquals(400, send("cursor=not-a-cursor").statusCode());
+        Assert.assertEquals(400, send("after_id=1&before_id=3").statusCode());
+    }
+
+
+    private MessagePage getPage(String query) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(query);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), MessagePage.class);
+    }
+
+    private HttpResponse<String> send(String query) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?" + query))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Integer> messageIds(MessagePage page){
+        List<Integer> ids = new ArrayList<>();
+        for(Message message : page.getMessages()){
+            ids.add(message.getMessage_id());
+        }
+        return ids;
+    }
+
+    private List<Integer> ids(int... values){
+        List<Integer> ids = new ArrayList<>();
+        for(int value : values){
+            ids.add(value);
+        }
+        return ids;
+    }
+
+    private void insertMessages(int count) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+            PreparedStatement ps = conn.prepareStatement(
+                    "insert into message (posted_by, message_text, time_posted_epoch) values (?, ?, ?)")) {
+            for(int i = 2; i < count + 2; i++){
+                ps.setInt(1, 1);
+                ps.setString(2, "paged message " + i);
+                ps.setLong(3, 1669947792 + i * 4);
+                ps.executeUpdate();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Util.ConnectionUtil;
+import Util.MigrationRunner;
+
+public class SchemaMigrationTest {
+
+    /**
+     * Before every test, reset the database, which also re-applies the migrations.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * Running the migrations again should apply nothing and keep the existing rows.
+     */
+    @Test
+    public void migrateIsIdempotentAndKeepsData() throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            int version = MigrationRunner.currentVersion(connection);
+            Assert.assertTrue(version >= 4);
+
+            Assert.assertEquals(0, MigrationRunner.migrate(connection));
+            Assert.assertEquals(version, MigrationRunner.currentVersion(connection));
+            Assert.assertEquals(1, count(connection, "select count(*) from message"));
+            Assert.assertEquals(1, count(connection, "select count(*) from account"));
+        }
+    }
+
+    /**
+     * The query MessageDAO.getMessagesByUserId runs should seek into the (posted_by, time_posted_epoch)
+     * index, so the rows come back already in time order.
+     */
+    @Test
+    public void messagesByUserUsesPostedByTimeIndex() throws SQLException {
+        String plan = explain(MessageDAO.MESSAGES_BY_USER_SQL, 1);
+        Assert.assertTrue(plan, plan.contains("IDX_MESSAGE_POSTED_BY_TIME: POSTED_BY = "));
+    }
+
+    /**
+     * V4 drops the (time_posted_epoch, message_id) index V3 added, since no MessageDAO query reads it.
+     */
+    @Test
+    public void unusedTimeIdIndexIsDropped() throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            Assert.assertEquals(0, count(connection,
+                    "select count(*) from information_schema.indexes where index_name = 'IDX_MESSAGE_TIME_ID'"));
+            Assert.assertEquals(1, count(connection,
+                    "select count(*) from information_schema.indexes where index_name = 'IDX_MESSAGE_POSTED_BY_TIME'"));
+        }
+    }
+
+
+    private String explain(String sql, Object... parameters) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+            PreparedStatement ps = connection.prepareStatement("EXPLAIN " + sql)) {
+            for(int i = 0; i < parameters.length; i++){
+                ps.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return resultSet.getString(1);
+            }
+        }
+    }
+
+    private int count(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql);
+            ResultSet resultSet = ps.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Model.MessagePage;
+import Service.MessageSearchIndex;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add messages 2 to 6 before the app starts so they are
+     * indexed at startup, restart the Javalin app, and create a new webClient and ObjectMapper.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, SQLException {
+        ConnectionUtil.resetTestDatabase();
+        insertMessages("Red apples are sweet", "green apples are sour", "red cars are fast",
+                "APPLES, apples, apples!", "a red apple");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=red%20apples
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: only the message containing both words, matched whole and case-insensitively
+     */
+    @Test
+    public void searchMatchesEveryWord() throws IOException, InterruptedException {
+        Assert.assertEquals(ids(2), messageIds(search("q=red%20apples")));
+        Assert.assertEquals(ids(2, 3, 5), messageIds(search("q=Apples")));
+        Assert.assertEquals(ids(), messageIds(search("q=red%20bicycles")));
+    }
+
+    /**
+     * Creating, editing and deleting messages through the API should update search results straight away.
+     */
+    @Test
+    public void searchFollowsWrites() throws IOException, InterruptedException {
+        HttpResponse<String> created = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"fresh apples\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json"));
+        Assert.assertEquals(200, created.statusCode());
+        Assert.assertEquals(ids(2, 3, 5, 7), messageIds(search("q=apples")));
+
+        HttpResponse<String> updated = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"green pears\"}"))
+                .header("Content-Type", "application/json"));
+        Assert.assertEquals(200, updated.statusCode());
+        Assert.assertEquals(ids(2, 5, 7), messageIds(search("q=apples")));
+        Assert.assertEquals(ids(3), messageIds(search("q=green%20pears")));
+
+        HttpResponse<String> deleted = send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .DELETE());
+        Assert.assertEquals(200, deleted.statusCode());
+        Assert.assertEquals(ids(5, 7), messageIds(search("q=apples")));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=are&limit=2 and following next_cursor
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: messages 2 and 3, then 4, with no cursor after the last page
+     */
+    @Test
+    public void searchPagesFollowCursor() throws IOException, InterruptedException {
+        MessagePage first = search("q=are&limit=2");
+        Assert.assertEquals(ids(2, 3), messageIds(first));
+        Assert.assertNotNull(first.getNext_cursor());
+
+        MessagePage last = search("q=are&limit=2&cursor=" + first.getNext_cursor());
+        Assert.assertEquals(ids(4), messageIds(last));
+        Assert.assertNull(last.getNext_cursor());
+
+        MessagePage before = search("q=are&limit=2&before_id=4");
+        Assert.assertEquals(ids(2, 3), messageIds(before));
+        Assert.assertNull(before.getNext_cursor());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search with no words in q, or no q
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void searchWithoutWordsIsRejected() throws IOException, InterruptedException {
+        Assert.assertEquals(400, send(request("q=%20!%20")).statusCode());
+        Assert.assertEquals(400, send(request("limit=5")).statusCode());
+    }
+
+    /**
+     * Removing most of a term's ids compacts its list, and the remaining ids are still found in
+     * both directions.
+     */
+    @Test
+    public void indexKeepsMatchesThroughCompaction() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        for(int id = 1; id <= 200; id++){
+            index.add(id, id % 2 == 0 ? "even number" : "odd number");
+        }
+        for(int id = 1; id <= 180; id++){
+            index.remove(id, id % 2 == 0 ? "even number" : "odd number");
+        }
+        index.add(50, "odd number");
+
+        Assert.assertArrayEquals(new int[]{50, 181, 183}, index.search(MessageSearchIndex.terms("odd"), true, 0, 3));
+        Assert.assertArrayEquals(new int[]{199, 197}, index.search(MessageSearchIndex.terms("Number odd"), false, 200, 2));
+        Assert.assertEquals(21, index.search(MessageSearchIndex.terms("number"), true, 0, 100).length);
+        Assert.assertEquals(0, index.search(MessageSearchIndex.terms("even odd"), true, 0, 100).length);
+    }
+
+
+    private MessagePage search(String query) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(request(query));
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), MessagePage.class);
+    }
+
+    private HttpRequest.Builder request(String query){
+        return HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/search?" + query));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private List<Integer> messageIds(MessagePage page){
+        List<Integer> ids = new ArrayList<>();
+        for(Message message : page.getMessages()){
+            ids.add(message.getMessage_id());
+        }
+        return ids;
+    }
+
+    private List<Integer> ids(Integer... values){
+        return Arrays.asList(values);
+    }
+
+    private void insertMessages(String... texts) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+            PreparedStatement ps = conn.prepareStatement(
+                    "insert into message (posted_by, message_text, time_posted_epoch) values (?, ?, ?)")) {
+            for(String text : texts){
+                ps.setInt(1, 1);
+                ps.setString(2, text);
+                ps.setLong(3, 1669947800);
+                ps.executeUpdate();
+            }
+        }
+    }
+}
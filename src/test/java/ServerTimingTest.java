@@ -0,0 +1,196 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.ServerTiming;
+import Util.ServerTimingSampler;
+import io.javalin.Javalin;
+
+public class ServerTimingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A request that sends X-Server-Timing should get every phase back, with the insert counted as
+     * dao time.
+     */
+    @Test
+    public void requestedTimingReportsEveryPhase() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"timed\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("X-Server-Timing", "1")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, response.statusCode());
+        String serverTiming = response.headers().firstValue("Server-Timing").orElse("");
+        for(String phase : new String[]{"parse", "service", "dao", "serialize", "total"}){
+            Assert.assertTrue(serverTiming, serverTiming.contains(phase + ";dur="));
+        }
+        Assert.assertTrue(serverTiming, duration(serverTiming, "dao") > 0);
+        Assert.assertTrue(serverTiming, duration(serverTiming, "total") >= duration(serverTiming, "dao"));
+    }
+
+    /**
+     * A streamed response too large to buffer is committed before its handler finishes, so its timing
+     * should arrive as a trailer after the last chunk, with the rows read counted as dao time.
+     */
+    @Test
+    public void streamedTimingIsSentAsTrailer() throws IOException, SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+            PreparedStatement ps = conn.prepareStatement(
+                    "insert into message (posted_by, message_text, time_posted_epoch) select 1, 'streamed message ' || x, x from system_range(1, 2000)")) {
+            ps.executeUpdate();
+        }
+
+        String response;
+        try (Socket socket = new Socket("localhost", 8080)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /messages?stream=true HTTP/1.1\r\nHost: localhost\r\nTE: trailers\r\n"
+                    + "X-Server-Timing: 1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            response = readChunkedResponse(socket.getInputStream());
+        }
+
+        int bodyStart = response.indexOf("\r\n\r\n");
+        String headers = response.substring(0, bodyStart);
+        String body = response.substring(bodyStart);
+        Assert.assertTrue(headers, headers.startsWith("HTTP/1.1 200"));
+        Assert.assertFalse(headers, headers.contains("Server-Timing:"));
+        Assert.assertTrue(body, body.contains("\r\n0\r\nServer-Timing: parse;dur="));
+        Assert.assertTrue(body, duration(body, "dao") > 0);
+    }
+
+    /**
+     * With group commit the insert runs on the writer thread, and its batch should still be counted as
+     * the request's dao time.
+     */
+    @Test
+    public void groupCommitTimingCountsTheBatch() throws IOException, InterruptedException {
+        app.stop();
+        System.setProperty("messages.groupCommit", "true");
+        try {
+            socialMediaController = new SocialMediaController();
+            app = socialMediaController.startAPI();
+            app.start(8080);
+        } finally {
+            System.clearProperty("messages.groupCommit");
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"batched\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .header("X-Server-Timing", "1")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, response.statusCode());
+        String serverTiming = response.headers().firstValue("Server-Timing").orElse("");
+        Assert.assertTrue(serverTiming, duration(serverTiming, "dao") > 0);
+    }
+
+    /**
+     * With the default sampling rate of 0, only requests that ask are timed.
+     */
+    @Test
+    public void unrequestedTimingIsNotSent() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")).build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("Server-Timing").isPresent());
+    }
+
+    /**
+     * The sampler should time one in sampleEvery requests and go without timing rather than allocate
+     * when every instance is lent out.
+     */
+    @Test
+    public void samplerHonoursRateAndCapacity() {
+        ServerTimingSampler sampler = new ServerTimingSampler(2, 1);
+
+        Assert.assertNull(sampler.start(false));
+        ServerTiming first = sampler.start(false);
+        Assert.assertNotNull(first);
+        Assert.assertNull(sampler.start(true));
+        Assert.assertEquals(1, sampler.getExhaustedCount());
+
+        first.add(ServerTiming.DAO, 5_000_000);
+        sampler.finish(first);
+        ServerTiming reused = sampler.start(true);
+        Assert.assertSame(first, reused);
+        Assert.assertEquals(0, reused.getNanos(ServerTiming.DAO));
+        Assert.assertEquals("parse;dur=0.000, service;dur=0.000, dao;dur=0.000, serialize;dur=0.000, total;dur=1.250",
+                reused.toHeader(1_250_000));
+    }
+
+
+    /**
+     * Reads a keep-alive response up to the end of its trailer section.
+     */
+    private static String readChunkedResponse(InputStream in) throws IOException {
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while((n = in.read(buffer)) > 0){
+            read.write(buffer, 0, n);
+            String soFar = read.toString(StandardCharsets.UTF_8);
+            int lastChunk = soFar.indexOf("\r\n0\r\n");
+            if(lastChunk >= 0 && soFar.indexOf("\r\n\r\n", lastChunk) >= 0){
+                break;
+            }
+        }
+        return read.toString(StandardCharsets.UTF_8);
+    }
+
+    private static double duration(String serverTiming, String phase){
+        Matcher matcher = Pattern.compile(phase + ";dur=([0-9.]+)").matcher(serverTiming);
+        Assert.assertTrue(serverTiming, matcher.find());
+        return Double.parseDouble(matcher.group(1));
+    }
+}
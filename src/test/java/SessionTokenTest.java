@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Exceptions.UnauthorizedException;
+import Util.ConnectionUtil;
+import Util.SessionTokenSigner;
+import io.javalin.Javalin;
+
+public class SessionTokenTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A token from POST /login should let its account post, and stop it from posting as anyone else.
+     */
+    @Test
+    public void loginTokenAuthenticatesMessages() throws IOException, InterruptedException {
+        String token = login();
+        registerSecondUser();
+
+        Assert.assertEquals(200, postMessage(1, "Bearer " + token).statusCode());
+        Assert.assertEquals(401, postMessage(2, "Bearer " + token).statusCode());
+
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"edited\"}"))
+                .header("Authorization", "Bearer " + token)
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Tampered, foreign or malformed tokens should be rejected, requests without one are unchanged.
+     */
+    @Test
+    public void invalidTokensAreRejected() throws IOException, InterruptedException {
+        String token = login();
+        String forged = "2" + token.substring(token.indexOf('.'));
+        String foreign = new SessionTokenSigner(new byte[32], 60).issue(1);
+
+        Assert.assertEquals(401, postMessage(1, "Bearer " + forged).statusCode());
+        Assert.assertEquals(401, postMessage(1, "Bearer " + foreign).statusCode());
+        Assert.assertEquals(401, postMessage(1, "Bearer nonsense").statusCode());
+        Assert.assertEquals(401, postMessage(1, "Basic dGVzdHVzZXIxOnBhc3N3b3Jk").statusCode());
+        Assert.assertEquals(200, postMessage(1, null).statusCode());
+    }
+
+    /**
+     * Expired tokens should fail verification.
+     */
+    @Test
+    public void expiredTokensAreRejected() {
+        SessionTokenSigner expiring = new SessionTokenSigner(new byte[32], 0);
+        SessionTokenSigner lasting = new SessionTokenSigner(new byte[32], 60);
+
+        String expired = expiring.issue(1);
+        Assert.assertThrows(UnauthorizedException.class, () -> expiring.verify(expired));
+        Assert.assertEquals(1, lasting.verify(lasting.issue(1)));
+    }
+
+    /**
+     * Threads signing at once should each get a Mac of their own, more threads than the pool holds.
+     */
+    @Test
+    public void concurrentSigningVerifies() throws Exception {
+        SessionTokenSigner signer = new SessionTokenSigner(new byte[32], 60);
+        ExecutorService executor = Executors.newFixedThreadPool(64);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for(int i = 0; i < 2000; i++){
+                int accountId = i;
+                futures.add(executor.submit(() -> signer.verify(signer.issue(accountId))));
+            }
+            for(int i = 0; i < futures.size(); i++){
+                Assert.assertEquals(i, (int) futures.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private String login() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"testuser1\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response.headers().firstValue(SocialMediaController.SESSION_TOKEN_HEADER).orElseThrow();
+    }
+
+    private void registerSecondUser() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"second\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpResponse<String> postMessage(int postedBy, String authorization) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":" + postedBy
+                        + ", \"message_text\": \"hello\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json");
+        if(authorization != null){
+            builder.header("Authorization", authorization);
+        }
+        return webClient.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
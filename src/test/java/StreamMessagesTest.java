@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class StreamMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=true
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the same JSON list of message objects as the unstreamed endpoint
+     */
+    @Test
+    public void streamAllMessages() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("/messages?stream=true");
+
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=true with more rows than fit in one buffer
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: every message in message_id order, sent without a Content-Length
+     */
+    @Test
+    public void streamAllMessagesManyRows() throws IOException, InterruptedException, SQLException {
+        insertMessages(2000);
+
+        HttpResponse<String> response = send("/messages?stream=true");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("Content-Length").isPresent());
+
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(2001, actualResult.size());
+        for(int i = 0; i < actualResult.size(); i++){
+            Assert.assertEquals(i + 1, actualResult.get(i).getMessage_id());
+        }
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages?stream=true
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON list of the account's messages
+     */
+    @Test
+    public void streamMessagesForUser() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("/accounts/1/messages?stream=true");
+
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expectedResult = new ArrayList<>();
+        expectedResult.add(new Message(1, 1, "test message 1", 1669947792));
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/2/messages?stream=true for a user with no messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON representation of an empty list
+     */
+    @Test
+    public void streamMessagesForUserNoMessages() throws IOException, InterruptedException {
+        HttpResponse<String> response = send("/accounts/2/messages?stream=true");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("[]", response.body());
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=true when the query fails after
+     * some rows have already been sent
+     *
+     * Expected Response:
+     *  The transfer is broken off, so the client never receives a complete, valid JSON array
+     */
+    @Test
+    public void streamAllMessagesFailurePartWay() throws IOException, InterruptedException, SQLException {
+        insertMessages(2000);
+        // Put a view in front of the table that fails on row 1500, after the first flushes went out
+        execute("alter table message rename to message_base");
+        execute("create view message as select message_id, posted_by, "
+                + "case when message_id = 1500 then cast(1 / (message_id - 1500) as varchar) else message_text end message_text, "
+                + "time_posted_epoch from message_base");
+
+        try {
+            HttpResponse<String> response;
+            try {
+                response = send("/messages?stream=true");
+            } catch (IOException e) {
+                // The connection was aborted before the body ended
+                return;
+            }
+            try {
+                objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+                Assert.fail("A stream that failed part way must not parse as a complete array");
+            } catch (JsonProcessingException expected) {
+            }
+        } finally {
+            execute("drop view message");
+            execute("alter table message_base rename to message");
+        }
+    }
+
+
+    private HttpResponse<String> send(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+            PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.execute();
+        }
+    }
+
+    private void insertMessages(int count) throws SQLException {
+        try (Connection conn = ConnectionUtil.getConnection();
+            PreparedStatement ps = conn.prepareStatement(
+                    "insert into message (posted_by, message_text, time_posted_epoch) values (?, ?, ?)")) {
+            for(int i = 0; i < count; i++){
+                ps.setInt(1, 1);
+                ps.setString(2, "streamed message " + i);
+                ps.setLong(3, 1669947792 + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+}
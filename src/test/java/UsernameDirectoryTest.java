@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.UserDAO;
+import Exceptions.UnauthorizedException;
+import Model.Account;
+import Service.UserService;
+import Util.ConnectionUtil;
+
+public class UsernameDirectoryTest {
+    UserService userService;
+
+    /**
+     * Before every test, reset the database and create a service with an empty directory.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        userService = new UserService(new UserDAO());
+    }
+
+    /**
+     * A registered account should be able to log in, and a repeated unknown username rejected,
+     * without looking either up in the database again.
+     */
+    @Test
+    public void loginsAreAnsweredFromTheDirectory() {
+        Account account = userService.registerUser("directory", "password");
+
+        for(int i = 0; i < 3; i++){
+            Assert.assertEquals(account, userService.login("directory", "password"));
+            try {
+                userService.login("nobody", "password");
+                Assert.fail("Expected an unknown username to be rejected");
+            } catch (UnauthorizedException e) {
+                // expected
+            }
+        }
+        try {
+            userService.login("directory", "wrong");
+            Assert.fail("Expected a wrong password to be rejected");
+        } catch (UnauthorizedException e) {
+            // expected
+        }
+
+        // One miss for "directory" during registration, one for "nobody"
+        Assert.assertEquals(2, userService.getAccountDirectory().getLoadCount());
+    }
+
+    /**
+     * Racing registrations of one username, each through its own service and directory, should create
+     * exactly one account and reject the rest as taken.
+     */
+    @Test
+    public void racingRegistrationsCreateOneAccount() throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Account>> futures = new ArrayList<>();
+
+        for(int i = 0; i < threads; i++){
+            UserService service = new UserService(new UserDAO());
+            // Every directory has already cached the username as unknown
+            Assert.assertThrows(UnauthorizedException.class, () -> service.login("racer", "password"));
+            futures.add(executor.submit(() -> {
+                start.await();
+                return service.registerUser("racer", "password");
+            }));
+        }
+        start.countDown();
+
+        int created = 0;
+        for(Future<Account> future : futures){
+            try {
+                Assert.assertEquals("racer", future.get().getUsername());
+                created++;
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(1, created);
+        Assert.assertEquals("racer", userService.login("racer", "password").getUsername());
+    }
+
+    /**
+     * An account registered through another service should be able to log in here once the short
+     * lifetime of the cached "unknown username" runs out, well before the directory's own TTL.
+     */
+    @Test
+    public void unknownUsernamesExpireSoon() throws Exception {
+        System.setProperty("accounts.directory.missingTtlSeconds", "1");
+        UserService shortLived;
+        try {
+            shortLived = new UserService(new UserDAO());
+        } finally {
+            System.clearProperty("accounts.directory.missingTtlSeconds");
+        }
+        Assert.assertThrows(UnauthorizedException.class, () -> shortLived.login("elsewhere", "password"));
+
+        Account account = userService.registerUser("elsewhere", "password");
+        Assert.assertThrows(UnauthorizedException.class, () -> shortLived.login("elsewhere", "password"));
+
+        Thread.sleep(1100);
+        Assert.assertEquals(account, shortLived.login("elsewhere", "password"));
+    }
+}